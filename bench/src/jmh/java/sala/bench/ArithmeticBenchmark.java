@@ -0,0 +1,132 @@
+package sala.bench;
+
+import org.openjdk.jmh.annotations.*;
+import sala.Compiler;
+import sala.Execution;
+import sala.Interpreter;
+import sala.Program;
+import sala.SalaException;
+import sala.StandardInstructions;
+import sala.Token;
+import sala.TokenTypes;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ArithmeticBenchmark {
+    private static final Token SITE = new Token(TokenTypes.WORD, "bench");
+
+    // floats can't be written in source, so the generic helpers the .any instructions call are measured directly
+    @Param({"int", "float", "mixed"})
+    public String types;
+
+    private Object a;
+    private Object b;
+
+    @Setup
+    public void setup() {
+        switch (types) {
+            case "int" -> {
+                a = 7;
+                b = 3;
+            }
+            case "float" -> {
+                a = 7.5f;
+                b = 3.25f;
+            }
+            default -> {
+                a = 7;
+                b = 3.25f;
+            }
+        }
+    }
+
+    @Benchmark
+    public Object add() throws SalaException {
+        return StandardInstructions.add(SITE, a, b);
+    }
+
+    @Benchmark
+    public Object sub() throws SalaException {
+        return StandardInstructions.sub(SITE, a, b);
+    }
+
+    @Benchmark
+    public Object mul() throws SalaException {
+        return StandardInstructions.mul(SITE, a, b);
+    }
+
+    @Benchmark
+    public Object div() throws SalaException {
+        return StandardInstructions.div(SITE, a, b);
+    }
+
+    @Benchmark
+    public Object mod() throws SalaException {
+        return StandardInstructions.mod(SITE, a, b);
+    }
+
+    @Benchmark
+    public boolean lessThan() throws SalaException {
+        return StandardInstructions.lessThan(SITE, a, b);
+    }
+
+    @Benchmark
+    public boolean greaterThan() throws SalaException {
+        return StandardInstructions.greaterThan(SITE, a, b);
+    }
+
+    @Benchmark
+    public boolean equal() {
+        return a.equals(b);
+    }
+
+    @State(Scope.Benchmark)
+    public static class Strings {
+        public final String a = "sala";
+        public final String b = "stack";
+    }
+
+    @Benchmark
+    public Object concat(Strings s) throws SalaException {
+        return StandardInstructions.add(SITE, s.a, s.b);
+    }
+
+    @Benchmark
+    public Object repeat(Strings s) throws SalaException {
+        return StandardInstructions.mul(SITE, s.a, 3);
+    }
+
+    // the same instructions through the interpreter, where int operands run the quickened .ii forms
+    @State(Scope.Benchmark)
+    public static class Interpreted {
+        private static final int ITERATIONS = 10_000;
+
+        @Param({"add", "sub", "mul", "div", "mod", "jlt", "jgt", "jeq"})
+        public String op;
+
+        private Program program;
+
+        @Setup
+        public void setup() throws SalaException {
+            var instruction = switch (op) {
+                case "jlt", "jgt", "jeq" -> "push 7\npush 3\n" + op + " next\n:next\n";
+                default -> "push 7\npush 3\n" + op + "\nsv 0\n";
+            };
+            var source = ".var 1\npush 0\n:loop\n" + instruction.replace("next", "next_" + op) + "push 1\nadd\ndup\npush " + ITERATIONS + "\njlt loop\n";
+            program = new Compiler().optimize(false).compile(Interpreter.lexLines(source));
+        }
+    }
+
+    // one operation is one loop iteration around the instruction
+    @Benchmark
+    @OperationsPerInvocation(10_000)
+    public void interpreted(Interpreted state) throws SalaException {
+        new Execution(state.program, _ -> {}, Examples.NO_INPUT).run();
+    }
+}
@@ -0,0 +1,70 @@
+package sala.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import sala.Compiler;
+import sala.Execution;
+import sala.Interpreter;
+import sala.Program;
+import sala.RegisterExecution;
+import sala.RegisterProgram;
+import sala.SalaException;
+
+import java.util.concurrent.TimeUnit;
+
+// one operation is one source instruction, so the gc profiler's alloc.rate.norm is bytes per executed instruction;
+// fused superinstructions still count as every instruction they replace
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+    private static final int LOOP_ITERATIONS = 100_000;
+    private static final int LOOP_INSTRUCTIONS = 9;
+    private static final int FIB_ITERATIONS = 100_000;
+    private static final int FIB_INSTRUCTIONS = 17;
+
+    @Param({"true", "false"})
+    public boolean optimize;
+
+    @Param({"STACK", "REGISTER"})
+    public Interpreter.Backend backend;
+
+    private Program loop;
+    private Program fib;
+    private RegisterProgram loopRegisters;
+    private RegisterProgram fibRegisters;
+
+    @Setup
+    public void setup() throws SalaException {
+        loop = new Compiler().optimize(optimize).compile(Interpreter.lexLines(Examples.loop(LOOP_ITERATIONS)));
+        fib = new Compiler().optimize(optimize).compile(Interpreter.lexLines(Examples.fib(FIB_ITERATIONS)));
+        if (backend == Interpreter.Backend.REGISTER) {
+            loopRegisters = RegisterProgram.translate(loop);
+            fibRegisters = RegisterProgram.translate(fib);
+            if (loopRegisters == null || fibRegisters == null) throw new IllegalStateException("the examples can't be translated to registers");
+        }
+    }
+
+    private static void run(Program program, RegisterProgram registers, Blackhole bh) throws SalaException {
+        if (registers != null) {
+            new RegisterExecution(registers, Examples.sink(bh), Examples.NO_INPUT).run();
+        } else {
+            new Execution(program, Examples.sink(bh), Examples.NO_INPUT).run();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOP_ITERATIONS * LOOP_INSTRUCTIONS)
+    public void loop(Blackhole bh) throws SalaException {
+        run(loop, loopRegisters, bh);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FIB_ITERATIONS * FIB_INSTRUCTIONS)
+    public void fib(Blackhole bh) throws SalaException {
+        run(fib, fibRegisters, bh);
+    }
+}
@@ -0,0 +1,50 @@
+package sala.bench;
+
+import org.openjdk.jmh.infra.Blackhole;
+import sala.SalaInput;
+import sala.SalaOutput;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+final class Examples {
+    private Examples() {
+    }
+
+    static String read(String name) {
+        try {
+            return Files.readString(Path.of(System.getProperty("sala.examples", "examples"), name));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // the loop bound of examples/loop.sala replaced by iterations
+    static String loop(int iterations) {
+        return read("loop.sala").replace("push 10 ", "push " + iterations + " ");
+    }
+
+    // examples/fib.sala running for iterations numbers
+    static String fib(int iterations) {
+        return read("fib.sala").replace("alias AMOUNT 20", "alias AMOUNT " + iterations);
+    }
+
+    // an output that keeps printed values alive without formatting or boxing them
+    static SalaOutput sink(Blackhole bh) {
+        return new SalaOutput() {
+            @Override
+            public void print(Object obj) {
+                bh.consume(obj);
+            }
+
+            @Override
+            public void printInt(int value) {
+                bh.consume(value);
+            }
+        };
+    }
+
+    static final SalaInput NO_INPUT = () -> null;
+}
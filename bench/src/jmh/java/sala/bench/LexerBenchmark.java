@@ -0,0 +1,33 @@
+package sala.bench;
+
+import org.openjdk.jmh.annotations.*;
+import sala.Interpreter;
+import sala.SalaException;
+import sala.Token;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LexerBenchmark {
+    @Param({"small", "huge"})
+    public String size;
+
+    private String source;
+
+    @Setup
+    public void setup() {
+        var fib = Examples.read("fib.sala");
+        // about 1MB of source for huge
+        source = size.equals("small") ? fib : fib.repeat(1 + (1 << 20) / fib.length());
+    }
+
+    @Benchmark
+    public Token[][] lexLines() throws SalaException {
+        return Interpreter.lexLines(source);
+    }
+}
@@ -0,0 +1,50 @@
+package sala.bench;
+
+import org.openjdk.jmh.annotations.*;
+import sala.SalaStack;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StackBenchmark {
+    private final SalaStack stack = new SalaStack(16);
+    private final Object ref = "sala";
+
+    @Benchmark
+    public int pushPopInt() {
+        stack.pushInt(42);
+        return stack.popInt();
+    }
+
+    @Benchmark
+    public float pushPopFloat() {
+        stack.pushFloat(4.2f);
+        return stack.popFloat();
+    }
+
+    @Benchmark
+    public Object pushPopRef() {
+        stack.push(ref);
+        return stack.pop();
+    }
+
+    // pop() has to box ints, which is what the .any paths pay
+    @Benchmark
+    public Object pushIntPopBoxed() {
+        stack.pushInt(42);
+        return stack.pop();
+    }
+
+    @Benchmark
+    public int dup() {
+        stack.pushInt(42);
+        stack.dup();
+        stack.popInt();
+        return stack.popInt();
+    }
+}
@@ -1,18 +1,21 @@
 import sala.*;
 
-import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.Scanner;
+import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.util.ArrayList;
+import java.util.List;
 
 class Main {
-    private static String readline() {
-        var s = new Scanner(System.in);
-        var str = s.nextLine();
-        s.close();
-        return str;
-    }
-
     private static void testTrailing() {
         try {
             var t = new Token[]{new Token(TokenTypes.WORD, ""), new Token(TokenTypes.NUMBER, ""), new Token(TokenTypes.NUMBER, "")};
@@ -25,33 +28,349 @@ class Main {
         System.exit(0);
     }
 
-    public static void main(String[] args) {
-        // testTrailing();
+    private static CharSequence readFile(String path) {
+        try {
+            if (path.equals("-")) return SourceLoader.read(Channels.newChannel(System.in));
+            return SourceLoader.map(Path.of(path));
+        } catch (NoSuchFileException e) {
+            System.out.printf("file '%s' does not exist\n", path);
+        } catch (IOException e) {
+            System.out.printf("unable to read file '%s'\n", path);
+        }
+        System.exit(1);
+        return "";
+    }
 
-        if (args.length < 1)  {
-            System.out.println("expected sala [file]");
+    private static Program readProgram(String path) {
+        try (var in = new BufferedInputStream(Files.newInputStream(Path.of(path)))) {
+            return ProgramFile.read(in);
+        } catch (NoSuchFileException e) {
+            System.out.printf("file '%s' does not exist\n", path);
+        } catch (IOException e) {
+            System.out.printf("unable to read file '%s': %s\n", path, e.getMessage());
+        } catch (SalaException e) {
+            System.out.println(e.getMessage());
+        }
+        System.exit(1);
+        return null;
+    }
+
+    private static void build(String[] args) {
+        if (args.length < 2)  {
+            System.out.println("expected sala build [file] [output]");
+            System.exit(1);
+        }
+
+        String path = args[1];
+        Path output = Path.of(args.length > 2 ? args[2] : path.replaceFirst("\\.sala$", "") + ".salac");
+
+        CharSequence content = readFile(path);
+
+        try (var out = new BufferedOutputStream(Files.newOutputStream(output))) {
+            var program = new Compiler().compile(Interpreter.lexLines(content));
+            ProgramFile.write(program, out);
+        } catch (SalaException e) {
+            System.out.println(e.getMessage());
+            System.exit(1);
+        } catch (IOException e) {
+            System.out.printf("unable to write file '%s'\n", output);
+            System.exit(1);
+        }
+    }
+
+    private static void compile(String[] args) {
+        if (args.length < 2)  {
+            System.out.println("expected sala compile [file] [output]");
             System.exit(1);
         }
 
-        String path = args[0];
+        String path = args[1];
+        String name = Path.of(path).getFileName().toString().replaceFirst("\\.sala$", "").replaceAll("[^A-Za-z0-9_$]", "_");
+        if (name.isEmpty() || Character.isDigit(name.charAt(0))) name = "_" + name;
+        Path output = Path.of(args.length > 2 ? args[2] : name + ".jar");
+
+        CharSequence content = readFile(path);
 
-        String content = "";
-        try (Scanner s = new Scanner(new File(path))) {
-            StringBuilder builder = new StringBuilder();
-            while (s.hasNextLine()) builder.append(s.nextLine()).append("\n");
-            content = builder.toString().trim();
+        try {
+            var program = new Compiler().optimize(false).compile(Interpreter.lexLines(content));
+            AotCompiler.writeJar(program, name, output);
+        } catch (SalaException e) {
+            System.out.println(e.getMessage());
+            System.exit(1);
         } catch (IOException e) {
-            if (e.getClass().equals(FileNotFoundException.class)) {
-                System.out.printf("file '%s' does not exist\n", path);
+            System.out.printf("unable to write file '%s'\n", output);
+            System.exit(1);
+        }
+    }
+
+    private static long number(String arg, String option) {
+        try {
+            var n = Long.parseLong(arg.substring(option.length()));
+            if (n > 0) return n;
+        } catch (NumberFormatException _) {
+        }
+        System.out.printf("invalid number '%s' for %s\n", arg.substring(option.length()), option.substring(0, option.length() - 1));
+        System.exit(1);
+        return 0;
+    }
+
+    private static void batch(String[] args) {
+        var threads = 0;
+        var optimize = true;
+        var quantum = 0L;
+        var fuel = Long.MAX_VALUE;
+        var i = 1;
+        for (; i < args.length - 1 && args[i].startsWith("--"); i++) {
+            if (args[i].equals("--no-opt")) {
+                optimize = false;
+            } else if (args[i].equals("--jmx")) {
+                SalaMetrics.register();
+            } else if (args[i].startsWith("--threads=")) {
+                threads = (int) number(args[i], "--threads=");
+            } else if (args[i].startsWith("--quantum=")) {
+                quantum = number(args[i], "--quantum=");
+            } else if (args[i].startsWith("--fuel=")) {
+                fuel = number(args[i], "--fuel=");
             } else {
-                System.out.printf("unable to read file '%s'\n", path);
+                System.out.printf("unknown option '%s'\n", args[i]);
+                System.exit(1);
+            }
+        }
+
+        if (i >= args.length)  {
+            System.out.println("expected sala batch [options] [directory|manifest]");
+            System.exit(1);
+        }
+
+        List<BatchRunner.Job> jobs = null;
+        try {
+            jobs = BatchRunner.jobs(Path.of(args[i]));
+        } catch (NoSuchFileException e) {
+            System.out.printf("file '%s' does not exist\n", args[i]);
+            System.exit(1);
+        } catch (IOException e) {
+            System.out.printf("unable to read file '%s'\n", args[i]);
+            System.exit(1);
+        }
+
+        var failures = new ArrayList<BatchRunner.Result>();
+        BatchRunner.Summary summary = null;
+        try {
+            summary = new BatchRunner(threads, optimize).quantum(quantum).fuel(fuel).run(jobs, result -> {
+                System.out.printf("== %s\n", result.job().script());
+                System.out.print(result.output());
+                if (!result.output().isEmpty() && !result.output().endsWith("\n")) System.out.println();
+                if (result.failed()) {
+                    System.out.println(result.error());
+                    failures.add(result);
+                }
+            });
+        } catch (InterruptedException e) {
+            System.exit(1);
+        }
+
+        System.out.printf("%d scripts, %d failed, %.1f scripts/sec, p50 %.3fms, p99 %.3fms\n",
+                summary.scripts(), summary.failures(), summary.throughput(), summary.p50Nanos() / 1e6, summary.p99Nanos() / 1e6);
+        for (var failure : failures) System.out.printf("failed %s: %s\n", failure.job().script(), failure.error());
+        if (!failures.isEmpty()) System.exit(1);
+    }
+
+    private static void writeProfile(Profiler profiler, Path collapsed) {
+        profiler.report(System.err);
+        if (collapsed == null) return;
+        try {
+            profiler.writeCollapsed(collapsed);
+        } catch (IOException e) {
+            System.err.printf("unable to write file '%s'\n", collapsed);
+        }
+    }
+
+    private static void printReport(Compiler compiler, boolean report) {
+        if (!report) return;
+        if (compiler.fusions().isEmpty()) System.err.println("no fusions fired");
+        compiler.fusions().forEach((fusion, count) -> System.err.printf("%6d  %s\n", count, fusion));
+    }
+
+    private static void repl() {
+        try {
+            new Repl(new BufferedReader(new InputStreamReader(System.in)), System.out).run();
+        } catch (IOException e) {
+            System.out.println("unable to read input");
+            System.exit(1);
+        }
+    }
+
+    // runs the program again every time its file is saved; only the lines that changed since the last run are lexed,
+    // and a save that leaves the text as it was reruns the program compiled before
+    private static void watch(Path path, Compiler compiler, boolean report, Interpreter interpreter) {
+        var lines = new LineCache();
+        String last = null;
+        Program program = null;
+
+        try (var watcher = path.getFileSystem().newWatchService()) {
+            path.toAbsolutePath().getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            while (true) {
+                try {
+                    var text = SourceLoader.map(path).toString();
+                    var start = System.nanoTime();
+                    if (!text.equals(last)) {
+                        program = compiler.compile(lines.lex(text));
+                        last = text;
+                        printReport(compiler, report);
+                        System.err.printf("[%d of %d lines lexed, compiled in %.1fms]\n", lines.lexed(), lines.lexed() + lines.reused(), (System.nanoTime() - start) / 1e6);
+                    } else {
+                        System.err.println("[unchanged, reusing the compiled program]");
+                    }
+                    interpreter.interpret(program);
+                } catch (SalaException e) {
+                    System.out.println(e.getMessage());
+                } catch (NoSuchFileException e) {
+                    System.out.printf("file '%s' does not exist\n", path);
+                } catch (IOException e) {
+                    System.out.printf("unable to read file '%s'\n", path);
+                }
+                System.out.flush();
+                System.err.printf("[watching '%s']\n", path);
+
+                // editors often save a file in a few writes, so the events that follow the first one closely are dropped
+                var changed = false;
+                while (!changed) {
+                    var key = watcher.take();
+                    for (var event : key.pollEvents()) changed |= path.getFileName().equals(event.context());
+                    key.reset();
+                }
+                Thread.sleep(50);
+                for (var key = watcher.poll(); key != null; key = watcher.poll()) {
+                    key.pollEvents();
+                    key.reset();
+                }
             }
+        } catch (IOException e) {
+            System.out.printf("unable to watch file '%s'\n", path);
             System.exit(1);
+        } catch (InterruptedException e) {
+            System.exit(1);
+        }
+    }
+
+    public static void main(String[] args) {
+        // testTrailing();
+
+        if (args.length < 1)  {
+            System.out.println("expected sala [options] [file]");
+            System.exit(1);
+        }
+
+        if (args[0].equals("compile")) {
+            compile(args);
+            return;
+        }
+
+        if (args[0].equals("build")) {
+            build(args);
+            return;
         }
 
+        if (args[0].equals("batch")) {
+            batch(args);
+            return;
+        }
+
+        if (args[0].equals("repl")) {
+            repl();
+            return;
+        }
+
+        var optimize = true;
+        var report = false;
+        var watch = false;
+        Path cache = null;
+        Profiler profiler = null;
+        Path collapsed = null;
+        var fuel = Long.MAX_VALUE;
+        var backend = Interpreter.Backend.STACK;
+        var flush = System.console() != null ? BufferedSalaOutput.FlushPolicy.NEWLINE : BufferedSalaOutput.FlushPolicy.SIZE;
+        var i = 0;
+        for (; i < args.length - 1 && args[i].startsWith("--"); i++) {
+            switch (args[i]) {
+                case "--no-opt" -> optimize = false;
+                case "--opt-report" -> report = true;
+                case "--cache" -> cache = CompileCache.defaultDirectory();
+                case "--profile" -> profiler = new Profiler();
+                case "--watch" -> watch = true;
+                case "--jmx" -> SalaMetrics.register();
+                default -> {
+                    if (args[i].startsWith("--fuel=")) {
+                        fuel = number(args[i], "--fuel=");
+                    } else if (args[i].startsWith("--profile=")) {
+                        profiler = new Profiler();
+                        collapsed = Path.of(args[i].substring("--profile=".length()));
+                    } else if (args[i].startsWith("--cache=")) {
+                        cache = Path.of(args[i].substring("--cache=".length()));
+                    } else if (args[i].startsWith("--backend=")) {
+                        try {
+                            backend = Interpreter.Backend.valueOf(args[i].substring("--backend=".length()).toUpperCase());
+                        } catch (IllegalArgumentException e) {
+                            System.out.printf("unknown backend '%s'\n", args[i].substring("--backend=".length()));
+                            System.exit(1);
+                        }
+                    } else if (args[i].startsWith("--flush=")) {
+                        try {
+                            flush = BufferedSalaOutput.FlushPolicy.valueOf(args[i].substring("--flush=".length()).toUpperCase());
+                        } catch (IllegalArgumentException e) {
+                            System.out.printf("unknown flush policy '%s'\n", args[i].substring("--flush=".length()));
+                            System.exit(1);
+                        }
+                    } else {
+                        System.out.printf("unknown option '%s'\n", args[i]);
+                        System.exit(1);
+                    }
+                }
+            }
+        }
+
+        String path = args[i];
+
         try {
-            var interpreter = new Interpreter(Main::readline);
-            interpreter.interpret(content);
+            var compiler = new Compiler().optimize(optimize);
+            Program program = null;
+            if (watch && !path.equals("-") && !path.endsWith(".salac")) {
+                var out = new BufferedSalaOutput(new FileOutputStream(FileDescriptor.out).getChannel(), flush);
+                var in = new BufferedSalaInput(Channels.newChannel(System.in));
+                watch(Path.of(path), compiler, report, new Interpreter(out, in).fuel(fuel).backend(backend));
+                return;
+            } else if (path.endsWith(".salac")) {
+                program = readProgram(path);
+            } else if (cache != null && !path.equals("-")) {
+                var compileCache = new CompileCache(cache);
+                try {
+                    var source = SourceLoader.mapBytes(Path.of(path));
+                    program = compileCache.lookup(source, compiler);
+                    if (program == null) {
+                        program = compiler.compile(Interpreter.lexLines(SourceLoader.decode(source)));
+                        compileCache.store(source, compiler, program);
+                        printReport(compiler, report);
+                    }
+                } catch (NoSuchFileException e) {
+                    System.out.printf("file '%s' does not exist\n", path);
+                    System.exit(1);
+                } catch (IOException e) {
+                    System.out.printf("unable to read file '%s'\n", path);
+                    System.exit(1);
+                }
+            } else {
+                program = compiler.compile(Interpreter.lexLines(readFile(path)));
+                printReport(compiler, report);
+            }
+
+            var out = new BufferedSalaOutput(new FileOutputStream(FileDescriptor.out).getChannel(), flush);
+            var in = new BufferedSalaInput(Channels.newChannel(System.in));
+            var interpreter = new Interpreter(out, in).profile(profiler).fuel(fuel).backend(backend);
+            try {
+                interpreter.interpret(program);
+            } finally {
+                if (profiler != null) writeProfile(profiler, collapsed);
+            }
         } catch (SalaException e) {
            System.out.println(e.getMessage());
            System.exit(1);
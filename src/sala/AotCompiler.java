@@ -0,0 +1,402 @@
+package sala;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+public class AotCompiler {
+    private static final byte INT = Verifier.INT;
+
+    private static final String OBJECT = "Ljava/lang/Object;";
+    private static final String TOKEN = "Lsala/Token;";
+    private static final String BINARY = "(" + TOKEN + OBJECT + OBJECT + ")" + OBJECT;
+    private static final String COMPARE = "(" + TOKEN + OBJECT + OBJECT + ")Z";
+    private static final String INPUT = "Lsala/SalaInput;";
+    private static final String STRING = "Ljava/lang/String;";
+
+    private final Program program;
+    private final String className;
+    private final byte[][] states;
+    private final byte[] variables;
+    private final int maxDepth;
+    private final HashMap<Integer, Integer> siteIndex = new HashMap<>();
+    private final ClassWriter cw;
+    private boolean reads;
+
+    private AotCompiler(Program program, String className) throws SalaException {
+        this.program = program;
+        this.className = className;
+        var verifier = Verifier.verify(program.code, program.constants, program.sites, program.vars);
+        if (!verifier.verified) throw new SalaException(verifier.conflict.err("stack depth at the jump target depends on the path taken, so the program cannot be compiled"));
+        this.states = verifier.states;
+        this.variables = verifier.variables;
+        this.maxDepth = Math.max(1, verifier.maxDepth);
+        this.cw = new ClassWriter(className);
+    }
+
+    public static byte @NotNull [] compile(@NotNull Program program, @NotNull String className) throws SalaException {
+        return new AotCompiler(program, className).generate();
+    }
+
+    public static void writeJar(@NotNull Program program, @NotNull String className, @NotNull Path jar) throws SalaException, IOException {
+        var bytes = compile(program, className);
+
+        var manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, className);
+
+        try (var out = new JarOutputStream(Files.newOutputStream(jar), manifest)) {
+            out.putNextEntry(new JarEntry(className + ".class"));
+            out.write(bytes);
+            out.closeEntry();
+            bundleRuntime(out);
+        }
+    }
+
+    private static void bundleRuntime(JarOutputStream out) throws IOException {
+        Path source;
+        try {
+            source = Path.of(AotCompiler.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException e) {
+            throw new IOException("unable to locate the sala runtime", e);
+        }
+
+        if (Files.isDirectory(source)) {
+            try (var files = Files.walk(source.resolve("sala"))) {
+                for (Path file : files.filter(Files::isRegularFile).toList()) {
+                    out.putNextEntry(new JarEntry(source.relativize(file).toString().replace('\\', '/')));
+                    out.write(Files.readAllBytes(file));
+                    out.closeEntry();
+                }
+            }
+        } else {
+            try (var jar = new JarFile(source.toFile())) {
+                for (JarEntry entry : jar.stream().filter(e -> e.getName().startsWith("sala/") && !e.isDirectory()).toList()) {
+                    out.putNextEntry(new JarEntry(entry.getName()));
+                    try (var in = jar.getInputStream(entry)) {
+                        in.transferTo(out);
+                    }
+                    out.closeEntry();
+                }
+            }
+        }
+    }
+
+    private int objectLocal(int slot) {
+        return slot;
+    }
+
+    private int intLocal(int slot) {
+        return maxDepth + slot;
+    }
+
+    // each variable lives in one local, an int when every store to it is an int
+    private int variableLocal(int slot) {
+        return maxDepth * 2 + slot;
+    }
+
+    private void load(ClassWriter.Code code, byte[] state, int slot) {
+        if (state[slot] == INT) {
+            code.local(0x15, intLocal(slot));
+            code.op(0xb8, cw.methodRef("java/lang/Integer", "valueOf", "(I)Ljava/lang/Integer;"));
+        } else {
+            code.local(0x19, objectLocal(slot));
+        }
+    }
+
+    private void pushInt(ClassWriter.Code code, int v) {
+        if (v >= -1 && v <= 5) {
+            code.op(0x03 + v);
+        } else if (v >= Byte.MIN_VALUE && v <= Byte.MAX_VALUE) {
+            code.op(0x10).u1(v);
+        } else if (v >= Short.MIN_VALUE && v <= Short.MAX_VALUE) {
+            code.op(0x11, v);
+        } else {
+            code.op(0x13, cw.integer(v));
+        }
+    }
+
+    private void site(ClassWriter.Code code, int pc) {
+        var index = siteIndex.computeIfAbsent(pc, _ -> siteIndex.size());
+        code.op(0xb2, cw.fieldRef(className, "SITES", "[" + TOKEN));
+        pushInt(code, index);
+        code.op(0x32);
+    }
+
+    // boxes the int slots that the target state expects as objects
+    private void convert(ClassWriter.Code code, byte[] from, byte[] to) {
+        for (int i = 0; i < to.length; i++) {
+            if (from[i] == INT && to[i] != INT) {
+                load(code, from, i);
+                code.local(0x3a, objectLocal(i));
+            }
+        }
+    }
+
+    private boolean needsConversion(byte[] from, byte[] to) {
+        for (int i = 0; i < to.length; i++) if (from[i] == INT && to[i] != INT) return true;
+        return false;
+    }
+
+    private void branch(ClassWriter.Code code, ArrayList<int[]> fixups, int opcode, byte[] state, int target) {
+        var to = states[target];
+        if (to != null && needsConversion(state, to)) {
+            var inverse = ((opcode - 0x99) ^ 1) + 0x99;
+            var at = code.position();
+            code.op(inverse, 0);
+            convert(code, state, to);
+            fixups.add(new int[]{code.position(), target});
+            code.op(0xa7, 0);
+            var skip = code.position() - at;
+            fixups.add(new int[]{at, -1, skip});
+        } else {
+            fixups.add(new int[]{code.position(), target});
+            code.op(opcode, 0);
+        }
+    }
+
+    private void jump(ClassWriter.Code code, ArrayList<int[]> fixups, byte[] state, int target) {
+        var to = states[target];
+        if (to != null) convert(code, state, to);
+        fixups.add(new int[]{code.position(), target});
+        code.op(0xa7, 0);
+    }
+
+    private byte[] generate() throws SalaException {
+        var bytecode = program.code;
+        var code = new ClassWriter.Code();
+        var offsets = new int[bytecode.length + 1];
+        var fixups = new ArrayList<int[]>();
+
+        for (int v = 0; v < variables.length; v++) {
+            code.op(0x03);
+            if (variables[v] == INT) {
+                code.local(0x36, variableLocal(v));
+            } else {
+                code.op(0xb8, cw.methodRef("java/lang/Integer", "valueOf", "(I)Ljava/lang/Integer;"));
+                code.local(0x3a, variableLocal(v));
+            }
+        }
+
+        for (int pc = 0; pc < bytecode.length; pc += Opcodes.width(bytecode[pc])) {
+            offsets[pc] = code.position();
+            var in = states[pc];
+            if (in == null) continue;
+            var op = Opcodes.base(bytecode[pc]);
+            var d = in.length;
+            var next = pc + Opcodes.width(op);
+
+            switch (op) {
+                case Opcodes.PUSH_INT -> {
+                    pushInt(code, bytecode[pc + 1]);
+                    code.local(0x36, intLocal(d));
+                }
+                case Opcodes.PUSH -> {
+                    var c = program.constants[bytecode[pc + 1]];
+                    if (!(c instanceof String s)) throw new SalaException(program.sites[pc].err("unsupported constant '%s'", c));
+                    code.op(0x13, cw.string(s));
+                    code.local(0x3a, objectLocal(d));
+                }
+                case Opcodes.PRINT -> {
+                    code.op(0xb2, cw.fieldRef("java/lang/System", "out", "Ljava/io/PrintStream;"));
+                    if (in[d - 1] == INT) {
+                        code.local(0x15, intLocal(d - 1));
+                        code.op(0xb6, cw.methodRef("java/io/PrintStream", "print", "(I)V"));
+                    } else {
+                        code.local(0x19, objectLocal(d - 1));
+                        code.op(0xb6, cw.methodRef("java/io/PrintStream", "print", "(" + OBJECT + ")V"));
+                    }
+                }
+                case Opcodes.CLEAR -> {
+                }
+                case Opcodes.READLN, Opcodes.READINT, Opcodes.READALL -> {
+                    reads = true;
+                    // a prompt printed without a newline has to show before the program waits for input
+                    code.op(0xb2, cw.fieldRef("java/lang/System", "out", "Ljava/io/PrintStream;"));
+                    code.op(0xb6, cw.methodRef("java/io/PrintStream", "flush", "()V"));
+                    if (op == Opcodes.READINT) site(code, pc);
+                    code.op(0xb2, cw.fieldRef(className, "IN", INPUT));
+                    switch (op) {
+                        case Opcodes.READLN -> {
+                            code.op(0xb8, cw.methodRef("sala/StandardInstructions", "readLine", "(" + INPUT + ")" + STRING));
+                            code.op(0x59);
+                            code.op(0xb8, cw.methodRef("sala/StandardInstructions", "line", "(" + STRING + ")" + STRING));
+                            code.local(0x3a, objectLocal(d));
+                            code.op(0xb8, cw.methodRef("sala/StandardInstructions", "found", "(" + STRING + ")I"));
+                            code.local(0x36, intLocal(d + 1));
+                        }
+                        case Opcodes.READINT -> {
+                            code.op(0xb8, cw.methodRef("sala/StandardInstructions", "readInt", "(" + TOKEN + INPUT + ")J"));
+                            code.op(0x5c);
+                            code.op(0xb8, cw.methodRef("sala/StandardInstructions", "found", "(J)I"));
+                            code.local(0x36, intLocal(d + 1));
+                            code.op(0xb8, cw.methodRef("sala/StandardInstructions", "value", "(J)I"));
+                            code.local(0x36, intLocal(d));
+                        }
+                        default -> {
+                            code.op(0xb8, cw.methodRef("sala/StandardInstructions", "readAll", "(" + INPUT + ")" + STRING));
+                            code.local(0x3a, objectLocal(d));
+                        }
+                    }
+                }
+                case Opcodes.GV -> {
+                    var v = bytecode[pc + 1];
+                    if (variables[v] == INT) {
+                        code.local(0x15, variableLocal(v));
+                        code.local(0x36, intLocal(d));
+                    } else {
+                        code.local(0x19, variableLocal(v));
+                        code.local(0x3a, objectLocal(d));
+                    }
+                }
+                case Opcodes.SV, Opcodes.TEE -> {
+                    var v = bytecode[pc + 1];
+                    if (variables[v] == INT) {
+                        code.local(0x15, intLocal(d - 1));
+                        code.local(0x36, variableLocal(v));
+                    } else {
+                        load(code, in, d - 1);
+                        code.local(0x3a, variableLocal(v));
+                    }
+                }
+                case Opcodes.DUP -> {
+                    if (in[d - 1] == INT) {
+                        code.local(0x15, intLocal(d - 1));
+                        code.local(0x36, intLocal(d));
+                    } else {
+                        code.local(0x19, objectLocal(d - 1));
+                        code.local(0x3a, objectLocal(d));
+                    }
+                }
+                case Opcodes.ADD, Opcodes.SUB, Opcodes.MUL, Opcodes.DIV, Opcodes.MOD -> {
+                    if (in[d - 2] == INT && in[d - 1] == INT) {
+                        code.local(0x15, intLocal(d - 2));
+                        code.local(0x15, intLocal(d - 1));
+                        code.op(switch (op) {
+                            case Opcodes.ADD -> 0x60;
+                            case Opcodes.SUB -> 0x64;
+                            case Opcodes.MUL -> 0x68;
+                            case Opcodes.DIV -> 0x6c;
+                            default -> 0x70;
+                        });
+                        code.local(0x36, intLocal(d - 2));
+                    } else {
+                        site(code, pc);
+                        load(code, in, d - 2);
+                        load(code, in, d - 1);
+                        code.op(0xb8, cw.methodRef("sala/StandardInstructions", Opcodes.name(op), BINARY));
+                        code.local(0x3a, objectLocal(d - 2));
+                    }
+                }
+                case Opcodes.J -> jump(code, fixups, Arrays.copyOf(in, d - 2), bytecode[pc + 1]);
+                case Opcodes.JEQ, Opcodes.JNE, Opcodes.JLT, Opcodes.JGT -> {
+                    var out = Arrays.copyOf(in, d - 2);
+                    int branch;
+                    if (in[d - 2] == INT && in[d - 1] == INT) {
+                        code.local(0x15, intLocal(d - 2));
+                        code.local(0x15, intLocal(d - 1));
+                        branch = switch (op) {
+                            case Opcodes.JEQ -> 0x9f;
+                            case Opcodes.JNE -> 0xa0;
+                            case Opcodes.JLT -> 0xa1;
+                            default -> 0xa3;
+                        };
+                    } else if (op == Opcodes.JEQ || op == Opcodes.JNE) {
+                        load(code, in, d - 2);
+                        load(code, in, d - 1);
+                        code.op(0xb8, cw.methodRef("sala/StandardInstructions", "equal", "(" + OBJECT + OBJECT + ")Z"));
+                        branch = op == Opcodes.JEQ ? 0x9a : 0x99;
+                    } else {
+                        site(code, pc);
+                        load(code, in, d - 2);
+                        load(code, in, d - 1);
+                        code.op(0xb8, cw.methodRef("sala/StandardInstructions", op == Opcodes.JLT ? "lessThan" : "greaterThan", COMPARE));
+                        branch = 0x9a;
+                    }
+                    branch(code, fixups, branch, out, bytecode[pc + 1]);
+                }
+                default -> throw new SalaException(program.sites[pc].err("instruction '%s' cannot be compiled", Opcodes.name(op)));
+            }
+
+            if (op != Opcodes.J && states[next] != null) convert(code, Verifier.transfer(bytecode, pc, in, program.constants, variables), states[next]);
+        }
+        offsets[bytecode.length] = code.position();
+        code.op(0xb1);
+
+        if (code.position() > Short.MAX_VALUE) throw new SalaException("error: program is too large to be compiled");
+
+        for (int[] f : fixups) code.patch(f[0] + 1, f[1] == -1 ? f[2] : offsets[f[1]] - f[0]);
+        code.maxStack = 6;
+        code.maxLocals = maxDepth * 2 + variables.length;
+
+        cw.field(ClassWriter.ACC_PRIVATE | ClassWriter.ACC_STATIC | ClassWriter.ACC_FINAL, "SITES", "[" + TOKEN);
+        if (reads) cw.field(ClassWriter.ACC_PRIVATE | ClassWriter.ACC_STATIC | ClassWriter.ACC_FINAL, "IN", INPUT);
+        cw.method(ClassWriter.ACC_PUBLIC | ClassWriter.ACC_STATIC, "run", "()V", code);
+        cw.method(ClassWriter.ACC_PUBLIC | ClassWriter.ACC_STATIC, "main", "([Ljava/lang/String;)V", main());
+        cw.method(ClassWriter.ACC_STATIC, "<clinit>", "()V", sites());
+
+        return cw.toByteArray();
+    }
+
+    private ClassWriter.Code main() {
+        var code = new ClassWriter.Code();
+        code.op(0xb8, cw.methodRef(className, "run", "()V"));
+        code.op(0xb1);
+        var handler = code.position();
+        code.local(0x3a, 1);
+        code.op(0xb2, cw.fieldRef("java/lang/System", "out", "Ljava/io/PrintStream;"));
+        code.local(0x19, 1);
+        code.op(0xb6, cw.methodRef("sala/SalaException", "getMessage", "()Ljava/lang/String;"));
+        code.op(0xb6, cw.methodRef("java/io/PrintStream", "println", "(Ljava/lang/String;)V"));
+        code.op(0x04);
+        code.op(0xb8, cw.methodRef("java/lang/System", "exit", "(I)V"));
+        code.op(0xb1);
+        code.handler(0, 3, handler, cw.classRef("sala/SalaException"));
+        code.maxStack = 2;
+        code.maxLocals = 2;
+        return code;
+    }
+
+    private ClassWriter.Code sites() {
+        var code = new ClassWriter.Code();
+        pushInt(code, siteIndex.size());
+        code.op(0xbd, cw.classRef("sala/Token"));
+        for (var site : siteIndex.entrySet()) {
+            var token = program.sites[site.getKey()];
+            code.op(0x59);
+            pushInt(code, site.getValue());
+            code.op(0xbb, cw.classRef("sala/Token"));
+            code.op(0x59);
+            code.op(0xb2, cw.fieldRef("sala/TokenTypes", token.getType().name(), "Lsala/TokenTypes;"));
+            code.op(0x13, cw.string(token.getLiteral()));
+            pushInt(code, token.getStart());
+            pushInt(code, token.getLine());
+            code.op(0xb7, cw.methodRef("sala/Token", "<init>", "(Lsala/TokenTypes;Ljava/lang/String;II)V"));
+            code.op(0x53);
+        }
+        code.op(0xb3, cw.fieldRef(className, "SITES", "[" + TOKEN));
+        if (reads) {
+            code.op(0xbb, cw.classRef("sala/BufferedSalaInput"));
+            code.op(0x59);
+            code.op(0xb2, cw.fieldRef("java/lang/System", "in", "Ljava/io/InputStream;"));
+            code.op(0xb8, cw.methodRef("java/nio/channels/Channels", "newChannel", "(Ljava/io/InputStream;)Ljava/nio/channels/ReadableByteChannel;"));
+            code.op(0xb7, cw.methodRef("sala/BufferedSalaInput", "<init>", "(Ljava/nio/channels/ReadableByteChannel;)V"));
+            code.op(0xb3, cw.fieldRef(className, "IN", INPUT));
+        }
+        code.op(0xb1);
+        code.maxStack = 9;
+        code.maxLocals = 0;
+        return code;
+    }
+}
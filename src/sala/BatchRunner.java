@@ -0,0 +1,225 @@
+package sala;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+public class BatchRunner {
+    public record Job(@NotNull Path script, @Nullable Path input) {}
+
+    public record Result(@NotNull Job job, @NotNull String output, @Nullable String error, long nanos) {
+        public boolean failed() {
+            return error != null;
+        }
+    }
+
+    public record Summary(int scripts, int failures, long elapsedNanos, long p50Nanos, long p99Nanos) {
+        public double throughput() {
+            return elapsedNanos == 0 ? 0 : scripts * 1e9 / elapsedNanos;
+        }
+    }
+
+    // how many scripts each worker has scheduled at once when multiplexing
+    private static final int IN_FLIGHT_PER_WORKER = 8;
+
+    private final int threads;
+    private final boolean optimize;
+    private long quantum;
+    private long fuel = Long.MAX_VALUE;
+
+    // threads <= 0 runs every script on its own virtual thread
+    public BatchRunner(int threads, boolean optimize) {
+        this.threads = threads;
+        this.optimize = optimize;
+    }
+
+    // quantum > 0 multiplexes the scripts on a Scheduler with threads workers (one per core when threads <= 0)
+    // instead of giving each one a thread
+    public BatchRunner quantum(long quantum) {
+        this.quantum = quantum;
+        return this;
+    }
+
+    public BatchRunner fuel(long fuel) {
+        this.fuel = fuel;
+        return this;
+    }
+
+    // a directory runs every .sala and .salac file in it, with [name].in as input when it exists;
+    // any other file is a manifest of "script [input]" lines relative to the manifest
+    public static @NotNull List<Job> jobs(@NotNull Path path) throws IOException {
+        var jobs = new ArrayList<Job>();
+
+        if (Files.isDirectory(path)) {
+            try (var files = Files.list(path)) {
+                for (var script : files.sorted().toList()) {
+                    var name = script.getFileName().toString();
+                    if (!name.endsWith(".sala") && !name.endsWith(".salac")) continue;
+                    var input = script.resolveSibling(name.substring(0, name.lastIndexOf('.')) + ".in");
+                    jobs.add(new Job(script, Files.exists(input) ? input : null));
+                }
+            }
+            return jobs;
+        }
+
+        var base = path.toAbsolutePath().getParent();
+        for (var line : Files.readAllLines(path)) {
+            line = line.strip();
+            if (line.isEmpty() || line.startsWith(";")) continue;
+            var parts = line.split("\\s+");
+            jobs.add(new Job(base.resolve(parts[0]), parts.length > 1 ? base.resolve(parts[1]) : null));
+        }
+        return jobs;
+    }
+
+    // results are handed to sink in the order of jobs, as soon as each one and everything before it has finished
+    public @NotNull Summary run(@NotNull List<Job> jobs, @NotNull Consumer<Result> sink) throws InterruptedException {
+        var nanos = new long[jobs.size()];
+        var measured = 0;
+        var failures = 0;
+        var start = System.nanoTime();
+
+        if (quantum > 0) {
+            var workers = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+            try (var scheduler = new Scheduler(workers, quantum)) {
+                var futures = new ArrayList<CompletableFuture<Result>>(jobs.size());
+                for (int i = 0; i < jobs.size(); i++) futures.add(new CompletableFuture<>());
+                // only a window of scripts is compiled and has its input open at once, and each one that ends
+                // schedules the next from the worker that ran it
+                var next = new AtomicInteger();
+                for (int i = 0; i < workers * IN_FLIGHT_PER_WORKER; i++) admit(scheduler, jobs, futures, next);
+                for (int i = 0; i < futures.size(); i++) {
+                    var result = futures.get(i).join();
+                    nanos[measured++] = result.nanos;
+                    if (result.failed()) failures++;
+                    sink.accept(result);
+                }
+            }
+        } else {
+            try (var executor = threads > 0 ? Executors.newFixedThreadPool(threads) : Executors.newVirtualThreadPerTaskExecutor()) {
+                var futures = new ArrayList<Future<Result>>(jobs.size());
+                for (var job : jobs) futures.add(executor.submit(() -> run(job)));
+
+                for (int i = 0; i < futures.size(); i++) {
+                    Result result;
+                    try {
+                        result = futures.get(i).get();
+                    } catch (ExecutionException e) {
+                        // run catches everything a script throws, so this is the runner failing and there's no time to report
+                        result = new Result(jobs.get(i), "", error(jobs.get(i), e.getCause()), -1);
+                    }
+                    if (result.nanos >= 0) nanos[measured++] = result.nanos;
+                    if (result.failed()) failures++;
+                    sink.accept(result);
+                }
+            }
+        }
+
+        var elapsed = System.nanoTime() - start;
+        nanos = Arrays.copyOf(nanos, measured);
+        Arrays.sort(nanos);
+        return new Summary(jobs.size(), failures, elapsed, percentile(nanos, 50), percentile(nanos, 99));
+    }
+
+    private static long percentile(long[] sorted, int p) {
+        if (sorted.length == 0) return 0;
+        return sorted[Math.max(0, (int) Math.ceil(p / 100.0 * sorted.length) - 1)];
+    }
+
+    private static String error(Job job, Throwable e) {
+        return switch (e) {
+            case SalaException s -> s.getMessage();
+            case NoSuchFileException f -> String.format("file '%s' does not exist", f.getFile());
+            case IOException _ -> String.format("unable to read file '%s'", job.script);
+            default -> e.toString();
+        };
+    }
+
+    private Result run(Job job) {
+        var start = System.nanoTime();
+        var output = new StringBuilder();
+        String error = null;
+
+        try (var channel = job.input == null ? null : FileChannel.open(job.input)) {
+            SalaInput in = channel == null ? () -> null : new BufferedSalaInput(channel);
+            Interpreter.run(new Execution(load(job.script), output::append, in).fuel(fuel));
+        } catch (Throwable e) {
+            error = error(job, e);
+        }
+
+        return new Result(job, output.toString(), error, System.nanoTime() - start);
+    }
+
+    private void admit(Scheduler scheduler, List<Job> jobs, List<CompletableFuture<Result>> results, AtomicInteger next) {
+        while (true) {
+            var i = next.getAndIncrement();
+            if (i >= jobs.size()) return;
+            var result = schedule(scheduler, jobs.get(i));
+            // scripts that fail to load finish straight away, and looping over them keeps a run of them off the stack
+            if (!result.isDone()) {
+                result.thenAccept(r -> {
+                    results.get(i).complete(r);
+                    admit(scheduler, jobs, results, next);
+                });
+                return;
+            }
+            results.get(i).complete(result.join());
+        }
+    }
+
+    private CompletableFuture<Result> schedule(Scheduler scheduler, Job job) {
+        var start = System.nanoTime();
+        var output = new StringBuilder();
+        FileChannel channel = null;
+
+        try {
+            channel = job.input == null ? null : FileChannel.open(job.input);
+            SalaInput in = channel == null ? () -> null : new BufferedSalaInput(channel);
+            var execution = new Execution(load(job.script), output::append, in).fuel(fuel);
+            var input = channel;
+            // a scheduled script's event covers the time it spent waiting for a worker too
+            var event = Events.execute();
+            return scheduler.submit(execution).completion().handle((_, e) -> {
+                close(input);
+                if (e instanceof SalaException s) Events.failed("run", s);
+                Events.executed(event, Interpreter.Backend.STACK.name(), execution.executed(), execution.stack().peak(), e != null);
+                return new Result(job, output.toString(), e == null ? null : error(job, e), System.nanoTime() - start);
+            });
+        } catch (Throwable e) {
+            close(channel);
+            return CompletableFuture.completedFuture(new Result(job, output.toString(), error(job, e), System.nanoTime() - start));
+        }
+    }
+
+    private static void close(FileChannel channel) {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException _) {
+        }
+    }
+
+    private Program load(Path script) throws IOException, SalaException {
+        if (script.getFileName().toString().endsWith(".salac")) {
+            try (var in = new BufferedInputStream(Files.newInputStream(script))) {
+                return ProgramFile.read(in);
+            }
+        }
+        return new Compiler().optimize(optimize).compile(Interpreter.lexLines(SourceLoader.map(script)));
+    }
+}
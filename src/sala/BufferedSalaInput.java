@@ -0,0 +1,123 @@
+package sala;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class BufferedSalaInput implements SalaInput, Closeable {
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer;
+    private byte[] line = new byte[256];
+    private boolean ended;
+
+    public BufferedSalaInput(@NotNull ReadableByteChannel channel, int capacity) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(Math.max(capacity, 16)).flip();
+    }
+
+    public BufferedSalaInput(@NotNull ReadableByteChannel channel) {
+        this(channel, 1 << 16);
+    }
+
+    private boolean fill() {
+        if (ended) return false;
+        buffer.compact();
+        try {
+            var n = 0;
+            while (n == 0) n = channel.read(buffer);
+            if (n == -1) ended = true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            buffer.flip();
+        }
+        return buffer.hasRemaining();
+    }
+
+    private boolean available() {
+        return buffer.hasRemaining() || fill();
+    }
+
+    @Override
+    public String get() {
+        if (!available()) return null;
+
+        var length = 0;
+        while (available()) {
+            var b = buffer.get();
+            if (b == '\n') break;
+            if (length == line.length) line = Arrays.copyOf(line, length * 2);
+            line[length++] = b;
+        }
+        if (length > 0 && line[length - 1] == '\r') length--;
+
+        return new String(line, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private void skipLine() {
+        while (available()) {
+            if (buffer.get() == '\n') return;
+        }
+    }
+
+    // the next byte, with the end of the input read as the end of a line
+    private byte next() {
+        return available() ? buffer.get() : (byte) '\n';
+    }
+
+    @Override
+    public long getInt() {
+        if (!available()) return EOF;
+
+        var b = next();
+        while (b == ' ' || b == '\t') b = next();
+
+        var negative = b == '-';
+        if (negative || b == '+') b = next();
+
+        long value = 0;
+        var digits = 0;
+        while (b >= '0' && b <= '9') {
+            value = value * 10 + (b - '0');
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                skipLine();
+                throw new NumberFormatException("integer out of range");
+            }
+            digits++;
+            b = next();
+        }
+
+        while (b == ' ' || b == '\t' || b == '\r') b = next();
+
+        if (b != '\n') skipLine();
+        if (b != '\n' || digits == 0) throw new NumberFormatException("not an integer");
+
+        if (negative) value = -value;
+        if (value > Integer.MAX_VALUE) throw new NumberFormatException("integer out of range");
+        return value;
+    }
+
+    @Override
+    public String getAll() {
+        var bytes = new byte[Math.max(buffer.remaining(), 256)];
+        var length = 0;
+        while (available()) {
+            var n = buffer.remaining();
+            if (length + n > bytes.length) bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + n));
+            buffer.get(bytes, length, n);
+            length += n;
+        }
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
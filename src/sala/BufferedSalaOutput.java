@@ -0,0 +1,150 @@
+package sala;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+public class BufferedSalaOutput implements SalaOutput, Flushable, Closeable {
+    public enum FlushPolicy {
+        // write whenever the buffer fills up
+        SIZE,
+        // also write after every value that contains a newline
+        NEWLINE,
+        // grow the buffer and only write when flushed or closed
+        EXIT,
+    }
+
+    private final WritableByteChannel channel;
+    private final FlushPolicy policy;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final byte[] digits = new byte[11];
+    private ByteBuffer buffer;
+    private long written;
+
+    public BufferedSalaOutput(@NotNull WritableByteChannel channel, int capacity, @NotNull FlushPolicy policy) {
+        this.channel = channel;
+        this.policy = policy;
+        this.buffer = ByteBuffer.allocate(Math.max(capacity, 16));
+    }
+
+    public BufferedSalaOutput(@NotNull WritableByteChannel channel, @NotNull FlushPolicy policy) {
+        this(channel, 1 << 13, policy);
+    }
+
+    public BufferedSalaOutput(@NotNull WritableByteChannel channel) {
+        this(channel, FlushPolicy.SIZE);
+    }
+
+    public long bytesWritten() {
+        return written + buffer.position();
+    }
+
+    private void makeRoom() {
+        if (policy == FlushPolicy.EXIT) {
+            var grown = ByteBuffer.allocate(buffer.capacity() * 2);
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+        } else {
+            drain();
+        }
+    }
+
+    private void drain() {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                var n = channel.write(buffer);
+                written += n;
+                SalaMetrics.METRICS.wrote(n);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    @Override
+    public void print(Object obj) {
+        switch (obj) {
+            case Integer i -> printInt(i);
+            case String s -> printString(s);
+            case null -> printString("null");
+            default -> printString(obj.toString());
+        }
+    }
+
+    @Override
+    public void printInt(int value) {
+        long v = value;
+        var negative = v < 0;
+        if (negative) v = -v;
+
+        var i = digits.length;
+        do {
+            digits[--i] = (byte) ('0' + v % 10);
+            v /= 10;
+        } while (v != 0);
+        if (negative) digits[--i] = '-';
+
+        if (buffer.remaining() < digits.length - i) makeRoom();
+        buffer.put(digits, i, digits.length - i);
+    }
+
+    private void printString(String s) {
+        var newline = false;
+        var length = s.length();
+
+        for (int i = 0; i < length; i++) {
+            var c = s.charAt(i);
+            if (c >= 0x80) {
+                encode(s, i);
+                newline |= s.indexOf('\n', i) != -1;
+                break;
+            }
+            if (!buffer.hasRemaining()) makeRoom();
+            buffer.put((byte) c);
+            newline |= c == '\n';
+        }
+
+        if (newline && policy == FlushPolicy.NEWLINE) drain();
+    }
+
+    private void encode(String s, int from) {
+        var chars = CharBuffer.wrap(s, from, s.length());
+        encoder.reset();
+        while (encoder.encode(chars, buffer, true).isOverflow()) makeRoom();
+        while (encoder.flush(buffer).isOverflow()) makeRoom();
+    }
+
+    // an interactive program's prompt has to be visible before it blocks on input
+    void beforeInput() {
+        if (policy == FlushPolicy.NEWLINE) flush();
+    }
+
+    @Override
+    public void flush() {
+        if (buffer.position() > 0) drain();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package sala;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+final class ClassWriter {
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_PRIVATE = 0x0002;
+    static final int ACC_STATIC = 0x0008;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    // class files before version 50 are checked by the type-inferencing verifier, so no StackMapTable is needed
+    private static final int VERSION = 49;
+
+    static final class Code {
+        private byte[] bytes = new byte[64];
+        private int size;
+        private final ArrayList<int[]> handlers = new ArrayList<>();
+        int maxStack;
+        int maxLocals;
+
+        int position() {
+            return size;
+        }
+
+        Code u1(int v) {
+            if (size == bytes.length) bytes = Arrays.copyOf(bytes, size * 2);
+            bytes[size++] = (byte) v;
+            return this;
+        }
+
+        Code u2(int v) {
+            return u1(v >>> 8).u1(v);
+        }
+
+        void patch(int at, int v) {
+            bytes[at] = (byte) (v >>> 8);
+            bytes[at + 1] = (byte) v;
+        }
+
+        Code op(int opcode) {
+            return u1(opcode);
+        }
+
+        Code op(int opcode, int u2) {
+            return u1(opcode).u2(u2);
+        }
+
+        Code local(int opcode, int index) {
+            if (index > 255) return u1(0xc4).u1(opcode).u2(index);
+            return u1(opcode).u1(index);
+        }
+
+        void handler(int start, int end, int handler, int type) {
+            handlers.add(new int[]{start, end, handler, type});
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final HashMap<String, Integer> entries = new HashMap<>();
+    private final ByteArrayOutputStream members = new ByteArrayOutputStream();
+    private final DataOutputStream membersOut = new DataOutputStream(members);
+    private int poolCount = 1;
+    private int fieldCount = 0;
+    private final ArrayList<byte[]> methods = new ArrayList<>();
+    private final int thisClass;
+    private final int superClass;
+
+    ClassWriter(String name) {
+        thisClass = classRef(name);
+        superClass = classRef("java/lang/Object");
+    }
+
+    private int entry(String key, Writer writer) {
+        var index = entries.get(key);
+        if (index != null) return index;
+        try {
+            writer.write(poolOut);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        entries.put(key, poolCount);
+        return poolCount++;
+    }
+
+    private interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    int utf8(String s) {
+        return entry("U" + s, out -> {
+            out.writeByte(1);
+            out.writeUTF(s);
+        });
+    }
+
+    int classRef(String name) {
+        var n = utf8(name);
+        return entry("C" + name, out -> {
+            out.writeByte(7);
+            out.writeShort(n);
+        });
+    }
+
+    int string(String s) {
+        var n = utf8(s);
+        return entry("S" + s, out -> {
+            out.writeByte(8);
+            out.writeShort(n);
+        });
+    }
+
+    int integer(int v) {
+        return entry("I" + v, out -> {
+            out.writeByte(3);
+            out.writeInt(v);
+        });
+    }
+
+    private int nameAndType(String name, String desc) {
+        var n = utf8(name);
+        var d = utf8(desc);
+        return entry("N" + name + ":" + desc, out -> {
+            out.writeByte(12);
+            out.writeShort(n);
+            out.writeShort(d);
+        });
+    }
+
+    private int member(int tag, String owner, String name, String desc) {
+        var c = classRef(owner);
+        var nt = nameAndType(name, desc);
+        return entry(tag + owner + "." + name + ":" + desc, out -> {
+            out.writeByte(tag);
+            out.writeShort(c);
+            out.writeShort(nt);
+        });
+    }
+
+    int fieldRef(String owner, String name, String desc) {
+        return member(9, owner, name, desc);
+    }
+
+    int methodRef(String owner, String name, String desc) {
+        return member(10, owner, name, desc);
+    }
+
+    void field(int access, String name, String desc) {
+        try {
+            membersOut.writeShort(access);
+            membersOut.writeShort(utf8(name));
+            membersOut.writeShort(utf8(desc));
+            membersOut.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        fieldCount++;
+    }
+
+    void method(int access, String name, String desc, Code code) {
+        var bytes = new ByteArrayOutputStream();
+        var out = new DataOutputStream(bytes);
+        var body = code.toByteArray();
+        try {
+            out.writeShort(access);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(desc));
+            out.writeShort(1);
+            out.writeShort(utf8("Code"));
+            out.writeInt(12 + body.length + 8 * code.handlers.size());
+            out.writeShort(code.maxStack);
+            out.writeShort(code.maxLocals);
+            out.writeInt(body.length);
+            out.write(body);
+            out.writeShort(code.handlers.size());
+            for (int[] h : code.handlers) {
+                for (int v : h) out.writeShort(v);
+            }
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        methods.add(bytes.toByteArray());
+    }
+
+    byte[] toByteArray() {
+        var bytes = new ByteArrayOutputStream();
+        var out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(poolCount);
+            pool.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0);
+            out.writeShort(fieldCount);
+            members.writeTo(out);
+            out.writeShort(methods.size());
+            for (byte[] m : methods) out.write(m);
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+}
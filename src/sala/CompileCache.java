@@ -0,0 +1,88 @@
+package sala;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+public final class CompileCache {
+    private final Path directory;
+
+    public CompileCache(@NotNull Path directory) {
+        this.directory = directory;
+    }
+
+    public static @NotNull Path defaultDirectory() {
+        var env = System.getenv("SALA_CACHE_DIR");
+        if (env != null && !env.isEmpty()) return Path.of(env);
+        return Path.of(System.getProperty("user.home"), ".cache", "sala");
+    }
+
+    private static String key(ByteBuffer source, Compiler compiler) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256");
+            digest.update(source.duplicate());
+            digest.update((byte) ProgramFile.VERSION);
+            digest.update((byte) (compiler.isOptimizing() ? 1 : 0));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public @Nullable Program lookup(@NotNull ByteBuffer source, @NotNull Compiler compiler) {
+        var file = directory.resolve(key(source, compiler) + ".salac");
+        if (!Files.isRegularFile(file)) return null;
+
+        try (var in = new BufferedInputStream(Files.newInputStream(file))) {
+            return ProgramFile.read(in);
+        } catch (IOException | SalaException | RuntimeException e) {
+            // a corrupt or outdated entry is simply recompiled and replaced
+            return null;
+        }
+    }
+
+    public void store(@NotNull ByteBuffer source, @NotNull Compiler compiler, @NotNull Program program) {
+        store(directory.resolve(key(source, compiler) + ".salac"), program);
+    }
+
+    public @NotNull Program load(@NotNull ByteBuffer source, @NotNull Compiler compiler) throws SalaException, IOException {
+        var program = lookup(source, compiler);
+        if (program != null) return program;
+
+        program = compiler.compile(Interpreter.lexLines(SourceLoader.decode(source)));
+        store(source, compiler, program);
+        return program;
+    }
+
+    private void store(Path file, Program program) {
+        Path temp = null;
+        try {
+            Files.createDirectories(directory);
+            temp = Files.createTempFile(directory, "sala", ".tmp");
+            try (var out = new BufferedOutputStream(Files.newOutputStream(temp))) {
+                ProgramFile.write(program, out);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // the cache is best effort, so failing to fill it only costs a recompile next time
+        } finally {
+            // only left behind when the write or the move failed
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException _) {
+                }
+            }
+        }
+    }
+}
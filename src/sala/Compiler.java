@@ -0,0 +1,297 @@
+package sala;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+public class Compiler {
+    private int vars;
+    private final HashMap<String, SalaEntry> directives = new HashMap<>((Map.of(
+            "var", new SalaEntry(new Instruction().expect(TokenTypes.NUMBER), (_, _, args) -> {
+                if (!(constant(args[0]) instanceof Integer n) || n < 0) throw new SalaException(args[0].err("invalid variable count '%s'", args[0].getLiteral()));
+                vars = n;
+            })
+    )));
+    private boolean optimize = true;
+    private final LinkedHashMap<String, Integer> fusions = new LinkedHashMap<>();
+
+    private static final int INLINE_LIMIT = 8;
+    private static final Instruction INSTR = new Instruction().expect(TokenTypes.WORD).expect(TokenTypes.LABEL, "");
+    private static final Set<String> RESERVED = Set.of("instr", "end", "alias");
+
+    private record Definition(Token name, int from, int to, boolean inline) {}
+
+    private HashMap<String, Definition> instructions;
+    private HashMap<String, String> labelScopes;
+    private Token[][] lines;
+    private ArrayList<Op> ops;
+    private HashMap<String, Integer> targets;
+    private LinkedHashMap<Op, Token> jumps;
+    private LinkedHashMap<Op, String> calls;
+    private ArrayList<String> outOfLine;
+    private HashSet<String> inlining;
+    private ArrayList<Object> constants;
+    private HashMap<Object, Integer> constantIndex;
+    private boolean afterContent;
+
+    public Compiler optimize(boolean optimize) {
+        this.optimize = optimize;
+        return this;
+    }
+
+    public boolean isOptimizing() {
+        return optimize;
+    }
+
+    public @NotNull Map<String, Integer> fusions() {
+        return Collections.unmodifiableMap(fusions);
+    }
+
+    public @NotNull Program compile(@NotNull Token[][] tokens) throws SalaException {
+        if (!Events.enabled()) return build(tokens);
+        var event = new Events.Compile();
+        event.begin();
+        Program program;
+        try {
+            program = build(tokens);
+        } catch (SalaException e) {
+            Events.failed("compile", e);
+            throw e;
+        }
+        if (event.shouldCommit()) {
+            event.lines = tokens.length;
+            event.instructions = program.size();
+            event.optimized = optimize;
+            event.verified = program.verified;
+            event.commit();
+        }
+        return program;
+    }
+
+    private @NotNull Program build(@NotNull Token[][] tokens) throws SalaException {
+        tokens = tokens.clone();
+        vars = 0;
+        var labels = new HashSet<String>();
+        var aliasMap = new HashMap<String, Token>();
+        instructions = new HashMap<>();
+        labelScopes = new HashMap<>();
+
+        {
+            Token definition = null;
+            var start = 0;
+            var hasLabels = false;
+            var ln = 0;
+            for (Token[] line : tokens) {
+                if (line.length != 0) {
+                    if (line[0].is(TokenTypes.LABEL)) {
+                        if (labels.contains(line[0].getLiteral())) {
+                            throw new SalaException(line[0].err("label '%s' already defined", line[0].getLiteral()));
+                        } else if (line.length > 1) {
+                            throw new SalaException(line[0].err("label is not alone on the line"));
+                        } else if (Objects.equals(line[0].getLiteral(), "")) {
+                            throw new SalaException(line[0].err("labels cannot be empty"));
+                        }
+                        labels.add(line[0].getLiteral());
+                        labelScopes.put(line[0].getLiteral(), definition == null ? null : definition.getLiteral());
+                        hasLabels = true;
+                    } else if (line[0].is(TokenTypes.WORD, "alias")) {
+                        var cmp = new Token[line.length - 1];
+                        System.arraycopy(line, 1, cmp, 0, line.length - 1);
+                        var aliasInstr = new Instruction().expect(TokenTypes.WORD).expect(new TokenTypes[]{TokenTypes.NUMBER, TokenTypes.STRING, TokenTypes.WORD, TokenTypes.LABEL, TokenTypes.DIRECTIVE, TokenTypes.ALIAS});
+                        aliasInstr.check(cmp);
+                        aliasMap.put(cmp[0].getLiteral(), cmp[1]);
+                    } else if (line[0].is(TokenTypes.WORD, "instr")) {
+                        if (definition != null) throw new SalaException(line[0].err("instructions cannot be defined inside of other instructions"));
+                        var cmp = new Token[line.length - 1];
+                        System.arraycopy(line, 1, cmp, 0, line.length - 1);
+                        INSTR.check(cmp);
+                        var name = cmp[0].getLiteral();
+                        if (StandardInstructions.opcode(name) != -1 || instructions.containsKey(name) || RESERVED.contains(name)) throw new SalaException(cmp[0].err("instruction '%s' already defined", name));
+                        definition = cmp[0];
+                        start = ln + 1;
+                        hasLabels = false;
+                    } else if (line[0].is(TokenTypes.WORD, "end")) {
+                        if (definition == null) throw new SalaException(line[0].err("'end' outside of an instruction"));
+                        var cmp = new Token[line.length - 1];
+                        System.arraycopy(line, 1, cmp, 0, line.length - 1);
+                        new Instruction().check(cmp);
+                        var size = 0;
+                        for (int i = start; i < ln; i++) if (tokens[i].length != 0) size++;
+                        instructions.put(definition.getLiteral(), new Definition(definition, start, ln, !hasLabels && size <= INLINE_LIMIT));
+                        definition = null;
+                    } else {
+                        for (int i = 0; i < line.length; i++) {
+                            if (!line[i].is(TokenTypes.ALIAS)) continue;
+                            if (tokens[ln] == line) tokens[ln] = line.clone();
+                            tokens[ln][i] = line[i].fromAlias(aliasMap);
+                        }
+                    }
+                }
+                ln++;
+            }
+            if (definition != null) throw new SalaException(definition.err("instruction '%s' is missing its 'end'", definition.getLiteral()));
+        }
+
+        lines = tokens;
+        ops = new ArrayList<>();
+        targets = new HashMap<>();
+        jumps = new LinkedHashMap<>();
+        calls = new LinkedHashMap<>();
+        outOfLine = new ArrayList<>();
+        inlining = new HashSet<>();
+        constants = new ArrayList<>();
+        constantIndex = new HashMap<>();
+        afterContent = false;
+
+        lower(0, tokens.length, null);
+
+        // instructions that were not inlined follow the main code, which halts before reaching them
+        var entries = new HashMap<String, Integer>();
+        if (!outOfLine.isEmpty()) ops.add(new Op(Opcodes.HALT, 0, new Token()));
+        for (int i = 0; i < outOfLine.size(); i++) {
+            var definition = instructions.get(outOfLine.get(i));
+            entries.put(outOfLine.get(i), ops.size());
+            lower(definition.from, definition.to, outOfLine.get(i));
+            ops.add(new Op(Opcodes.RET, 0, tokens[definition.to][0]));
+        }
+
+        for (var jump : jumps.entrySet()) {
+            var label = jump.getValue();
+            var target = targets.get(label.getLiteral());
+            if (target == null) throw new SalaException(label.err("label '%s' does not exist", label.getLiteral()));
+            jump.getKey().operand = target;
+        }
+        for (var call : calls.entrySet()) call.getKey().operand = entries.get(call.getValue());
+
+        if (optimize) {
+            var optimized = FlowOptimizer.optimize(ops, constants, targets, fusions);
+            return encode(PeepholeOptimizer.optimize(optimized, targets, fusions), constants.toArray(), targets, vars);
+        }
+        return encode(ops, constants.toArray(), targets, vars);
+    }
+
+    private void lower(int from, int to, String scope) throws SalaException {
+        for (int i = from; i < to; i++) {
+            var line = lines[i];
+            if (line.length == 0) continue;
+            var t = line[0];
+
+            if (t.is(TokenTypes.LABEL)) {
+                afterContent = true;
+                targets.put(t.getLiteral(), ops.size());
+            } else if (t.is(TokenTypes.DIRECTIVE)) {
+                if (afterContent) throw new SalaException(t.err("directives can only be used at the top of the file before any code"));
+
+                var d = directives.get(t.getLiteral());
+                if (d == null) throw new SalaException(t.err("unknown directive '%s'", t.getLiteral()));
+
+                var cmp = new Token[line.length - 1];
+                System.arraycopy(line, 1, cmp, 0, line.length - 1);
+                d.instruction.check(cmp);
+                var r = new Ref<>(i);
+                d.effect.happen(r, t, cmp);
+                i = r.value;
+            } else if (t.is(TokenTypes.WORD)) {
+                if (t.is("alias")) continue;
+                afterContent = true;
+                if (t.is("instr")) {
+                    i = instructions.get(line[1].getLiteral()).to;
+                    continue;
+                }
+
+                var cmp = new Token[line.length - 1];
+                System.arraycopy(line, 1, cmp, 0, line.length - 1);
+
+                var opcode = StandardInstructions.opcode(t.getLiteral());
+                if (opcode == -1) {
+                    call(t, cmp);
+                    continue;
+                }
+                StandardInstructions.signature(opcode).check(cmp);
+
+                var op = new Op(opcode, 0, t);
+                if (opcode == Opcodes.PUSH) {
+                    if (cmp.length == 0) throw new SalaException(t.err("expected 'string' or 'number', but found EOL"));
+                    var value = constant(cmp[0]);
+                    if (value instanceof Integer n) {
+                        op.opcode = Opcodes.PUSH_INT;
+                        op.operand = n;
+                    } else {
+                        var index = constantIndex.get(value);
+                        if (index == null) {
+                            index = constants.size();
+                            constants.add(value);
+                            constantIndex.put(value, index);
+                        }
+                        op.operand = index;
+                    }
+                } else if (opcode == Opcodes.GV || opcode == Opcodes.SV) {
+                    if (cmp.length == 0) throw new SalaException(t.err("expected 'number', but found EOL"));
+                    if (!(constant(cmp[0]) instanceof Integer n) || n < 0 || n >= vars) throw new SalaException(cmp[0].err("variable %s does not exist, %d are declared", cmp[0].getLiteral(), vars));
+                    op.operand = n;
+                } else if (Opcodes.isJump(opcode)) {
+                    if (cmp.length == 0) throw new SalaException(t.err("expected 'word', but found EOL"));
+                    var label = cmp[0].getLiteral();
+                    if (labelScopes.containsKey(label) && !Objects.equals(labelScopes.get(label), scope)) {
+                        if (scope == null) throw new SalaException(cmp[0].err("label '%s' is inside of instruction '%s'", label, labelScopes.get(label)));
+                        throw new SalaException(cmp[0].err("label '%s' is outside of instruction '%s'", label, scope));
+                    }
+                    jumps.put(op, cmp[0]);
+                }
+                ops.add(op);
+            } else {
+                throw new SalaException(t.err("unexpected %s", t.getType().name().toLowerCase()));
+            }
+        }
+    }
+
+    // small bodies without labels are copied into the caller, everything else is called
+    private void call(Token t, Token[] args) throws SalaException {
+        var name = t.getLiteral();
+        var definition = instructions.get(name);
+        if (definition == null) throw new SalaException(t.err("unknown instruction '%s'", name));
+        new Instruction().check(args);
+
+        if (definition.inline && inlining.add(name)) {
+            lower(definition.from, definition.to, name);
+            inlining.remove(name);
+            return;
+        }
+
+        var op = new Op(Opcodes.CALL, 0, t);
+        calls.put(op, name);
+        if (!outOfLine.contains(name)) outOfLine.add(name);
+        ops.add(op);
+    }
+
+    private static Object constant(Token t) throws SalaException {
+        if (t.is(TokenTypes.STRING)) return t.getLiteral();
+        try {
+            return Integer.parseInt(t.getLiteral());
+        } catch (NumberFormatException e) {
+            throw new SalaException(t.err("invalid integer literal '%s'", t.getLiteral()));
+        }
+    }
+
+    static @NotNull Program encode(@NotNull List<Op> ops, @NotNull Object[] constants, @NotNull Map<String, Integer> targets, int vars) throws SalaException {
+        var pcs = new int[ops.size() + 1];
+        for (int i = 0; i < ops.size(); i++) pcs[i + 1] = pcs[i] + Opcodes.width(ops.get(i).opcode);
+
+        var code = new int[pcs[ops.size()]];
+        var sites = new Token[code.length];
+        for (int i = 0; i < ops.size(); i++) {
+            var op = ops.get(i);
+            var pc = pcs[i];
+            code[pc] = op.opcode;
+            sites[pc] = op.site;
+            var width = Opcodes.width(op.opcode);
+            if (width == 3) code[pc + 1] = op.value;
+            if (width > 1) code[pc + width - 1] = Opcodes.hasTarget(op.opcode) ? pcs[op.operand] : op.operand;
+        }
+
+        var labels = new HashMap<String, Integer>();
+        targets.forEach((label, target) -> labels.put(label, pcs[target]));
+
+        return new Program(code, constants, sites, labels, vars);
+    }
+}
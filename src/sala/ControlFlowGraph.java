@@ -0,0 +1,174 @@
+package sala;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// basic blocks of a program split at jump targets and after jumps, rets and halts; positions are pcs for a Program
+// and op indices inside the compiler
+public final class ControlFlowGraph {
+    public static final class Block {
+        private final int index;
+        private final int start;
+        private final int end;
+        private final ArrayList<Block> successors = new ArrayList<>(2);
+        private final ArrayList<Block> predecessors = new ArrayList<>(2);
+        private final ArrayList<Block> calls = new ArrayList<>(0);
+        private boolean reachable;
+
+        private Block(int index, int start, int end) {
+            this.index = index;
+            this.start = start;
+            this.end = end;
+        }
+
+        public int index() {
+            return index;
+        }
+
+        // the position of the first instruction and the one after the last
+        public int start() {
+            return start;
+        }
+
+        public int end() {
+            return end;
+        }
+
+        // where control goes after the block, by falling through or jumping; a block ending in ret has none
+        public @NotNull List<Block> successors() {
+            return Collections.unmodifiableList(successors);
+        }
+
+        public @NotNull List<Block> predecessors() {
+            return Collections.unmodifiableList(predecessors);
+        }
+
+        // the entries of the instructions the block calls, which return to the instruction after the call
+        public @NotNull List<Block> calls() {
+            return Collections.unmodifiableList(calls);
+        }
+
+        public boolean isReachable() {
+            return reachable;
+        }
+    }
+
+    private final int[] starts;
+    private final List<Block> blocks;
+
+    private ControlFlowGraph(int[] positions, int[] opcodes, int[] targets, int end) {
+        var n = positions.length;
+        var leader = new boolean[n + 1];
+        leader[0] = true;
+        for (int i = 0; i < n; i++) {
+            if (Opcodes.hasTarget(opcodes[i])) leader[index(positions, targets[i], n)] = true;
+            if (Opcodes.isJump(opcodes[i]) || terminates(opcodes[i])) leader[i + 1] = true;
+        }
+
+        var blocks = new ArrayList<Block>();
+        var starts = new int[n];
+        var owner = new int[n + 1];
+        for (int i = 0; i < n; ) {
+            var next = i + 1;
+            while (next < n && !leader[next]) next++;
+            starts[blocks.size()] = positions[i];
+            for (int j = i; j < next; j++) owner[j] = blocks.size();
+            blocks.add(new Block(blocks.size(), positions[i], next < n ? positions[next] : end));
+            i = next;
+        }
+        owner[n] = -1;
+        this.starts = Arrays.copyOf(starts, blocks.size());
+        this.blocks = Collections.unmodifiableList(blocks);
+
+        for (var block : blocks) {
+            var first = index(positions, block.start, n);
+            var last = index(positions, block.end, n) - 1;
+            for (int i = first; i <= last; i++) {
+                if (opcodes[i] != Opcodes.CALL) continue;
+                var entry = owner[index(positions, targets[i], n)];
+                if (entry != -1) block.calls.add(blocks.get(entry));
+            }
+
+            var op = opcodes[last];
+            if (!terminates(op) && owner[last + 1] != -1) link(block, blocks.get(owner[last + 1]));
+            if (Opcodes.isJump(op)) {
+                var target = owner[index(positions, targets[last], n)];
+                if (target != -1) link(block, blocks.get(target));
+            }
+        }
+
+        if (blocks.isEmpty()) return;
+        var work = new ArrayDeque<Block>();
+        visit(blocks.getFirst(), work);
+        while (!work.isEmpty()) {
+            var block = work.poll();
+            for (var next : block.successors) visit(next, work);
+            for (var next : block.calls) visit(next, work);
+        }
+    }
+
+    public static @NotNull ControlFlowGraph of(@NotNull Program program) {
+        var code = program.code;
+        var count = 0;
+        for (int pc = 0; pc < code.length; pc += Opcodes.width(code[pc])) count++;
+
+        var positions = new int[count];
+        var opcodes = new int[count];
+        var targets = new int[count];
+        for (int pc = 0, i = 0; pc < code.length; pc += Opcodes.width(code[pc]), i++) {
+            positions[i] = pc;
+            opcodes[i] = code[pc];
+            if (Opcodes.hasTarget(code[pc])) targets[i] = code[pc + Opcodes.width(code[pc]) - 1];
+        }
+        return new ControlFlowGraph(positions, opcodes, targets, code.length);
+    }
+
+    static ControlFlowGraph of(List<Op> ops) {
+        var positions = new int[ops.size()];
+        var opcodes = new int[ops.size()];
+        var targets = new int[ops.size()];
+        for (int i = 0; i < ops.size(); i++) {
+            positions[i] = i;
+            opcodes[i] = ops.get(i).opcode;
+            targets[i] = ops.get(i).operand;
+        }
+        return new ControlFlowGraph(positions, opcodes, targets, ops.size());
+    }
+
+    private static int index(int[] positions, int position, int n) {
+        var i = Arrays.binarySearch(positions, position);
+        return i < 0 ? n : i;
+    }
+
+    private static boolean terminates(int opcode) {
+        return opcode == Opcodes.J || opcode == Opcodes.RET || opcode == Opcodes.HALT;
+    }
+
+    private static void visit(Block block, ArrayDeque<Block> work) {
+        if (block.reachable) return;
+        block.reachable = true;
+        work.add(block);
+    }
+
+    private static void link(Block from, Block to) {
+        from.successors.add(to);
+        to.predecessors.add(from);
+    }
+
+    public @NotNull List<Block> blocks() {
+        return blocks;
+    }
+
+    public @Nullable Block blockAt(int position) {
+        var i = Arrays.binarySearch(starts, position);
+        if (i < 0) i = -i - 2;
+        if (i < 0 || position >= blocks.get(i).end) return null;
+        return blocks.get(i);
+    }
+}
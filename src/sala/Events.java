@@ -0,0 +1,167 @@
+package sala;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.util.Arrays;
+
+// flight recorder events for loading and running programs; loading the first event class starts up much of JFR, which
+// takes longer than running most programs, so none are created until flight recorder has been started
+final class Events {
+    // how many instructions run between two label samples
+    static final long SAMPLE_INTERVAL = 1 << 16;
+
+    private Events() {
+    }
+
+    @Name("sala.Lex")
+    @Label("Lex")
+    @Category("Sala")
+    @StackTrace(false)
+    static final class Lex extends Event {
+        @Label("Lines")
+        int lines;
+
+        @Label("Characters")
+        @DataAmount(DataAmount.BYTES)
+        long characters;
+    }
+
+    @Name("sala.Compile")
+    @Label("Compile")
+    @Category("Sala")
+    @StackTrace(false)
+    static final class Compile extends Event {
+        @Label("Lines")
+        int lines;
+
+        @Label("Instructions")
+        @Description("The length of the compiled code")
+        int instructions;
+
+        @Label("Optimized")
+        boolean optimized;
+
+        @Label("Verified")
+        boolean verified;
+    }
+
+    @Name("sala.Execute")
+    @Label("Execute")
+    @Category("Sala")
+    @StackTrace(false)
+    static final class Execute extends Event {
+        @Label("Backend")
+        String backend;
+
+        @Label("Instructions")
+        long instructions;
+
+        @Label("Stack Peak")
+        @Description("The deepest the stack got")
+        int stackPeak;
+
+        @Label("Failed")
+        boolean failed;
+    }
+
+    @Name("sala.Failure")
+    @Label("Failure")
+    @Category("Sala")
+    @StackTrace(false)
+    static final class Failure extends Event {
+        @Label("Stage")
+        @Description("Lex, compile or run")
+        String stage;
+
+        @Label("Message")
+        String message;
+    }
+
+    @Name("sala.LabelSample")
+    @Label("Label Sample")
+    @Description("The label an interpreter was running under, taken every 65536 instructions")
+    @Category("Sala")
+    @Enabled(false)
+    @StackTrace(false)
+    static final class LabelSample extends Event {
+        @Label("Label")
+        String label;
+
+        @Label("Line")
+        int line;
+    }
+
+    static boolean enabled() {
+        return FlightRecorder.isInitialized();
+    }
+
+    // null when flight recorder isn't running
+    static Execute execute() {
+        if (!enabled()) return null;
+        var event = new Execute();
+        event.begin();
+        return event;
+    }
+
+    static Labels labels(Program program) {
+        return enabled() && new LabelSample().isEnabled() ? new Labels(program) : null;
+    }
+
+    static void failed(String stage, SalaException e) {
+        if (!enabled()) return;
+        var event = new Failure();
+        if (!event.shouldCommit()) return;
+        event.stage = stage;
+        event.message = e.getMessage();
+        event.commit();
+    }
+
+    // commits an execution's event and adds it to the metrics, whether it finished or failed
+    static void executed(Execute event, String backend, long instructions, int stackPeak, boolean failed) {
+        SalaMetrics.METRICS.executed(instructions, stackPeak, failed);
+        if (event == null || !event.shouldCommit()) return;
+        event.backend = backend;
+        event.instructions = instructions;
+        event.stackPeak = stackPeak;
+        event.failed = failed;
+        event.commit();
+    }
+
+    // finds the label a line of a program falls under, which is the last one that starts on or before it
+    static final class Labels {
+        private final int[] lines;
+        private final String[] names;
+
+        Labels(Program program) {
+            var entries = program.labels.entrySet().stream()
+                    .filter(entry -> entry.getValue() < program.sites.length && program.sites[entry.getValue()] != null)
+                    .sorted((a, b) -> Integer.compare(program.sites[a.getValue()].getLine(), program.sites[b.getValue()].getLine()))
+                    .toList();
+            lines = new int[entries.size()];
+            names = new String[entries.size()];
+            for (int i = 0; i < entries.size(); i++) {
+                lines[i] = program.sites[entries.get(i).getValue()].getLine();
+                names[i] = entries.get(i).getKey();
+            }
+        }
+
+        void sample(Token site) {
+            var event = new LabelSample();
+            if (site == null || !event.shouldCommit()) return;
+            var i = Arrays.binarySearch(lines, site.getLine());
+            if (i < 0) i = -i - 2;
+            // two labels can start on the same line, and either of them will do
+            event.label = i < 0 ? null : names[i];
+            event.line = site.getLine() + 1;
+            event.commit();
+        }
+    }
+}
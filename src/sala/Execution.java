@@ -0,0 +1,412 @@
+package sala;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+
+public final class Execution {
+    private static final int MAX_FRAMES = 1 << 16;
+
+    private final Program program;
+    private final int[] code;
+    private final SalaStack stack;
+    private final SalaVariables vars;
+    private final SalaOutput out;
+    private final SalaInput in;
+    private final Profiler profiler;
+    private final boolean checked;
+    private int pc;
+    private int[] frames = new int[16];
+    private int fp;
+    private long executed;
+    private long fuel = Long.MAX_VALUE;
+
+    public Execution(@NotNull Program program, @NotNull SalaOutput out, @NotNull SalaInput in, @Nullable Profiler profiler) throws SalaException {
+        if (profiler != null) program = profiler.instrument(program);
+        this.program = program;
+        // quickening rewrites opcodes, so every execution works on its own copy of the code
+        this.code = program.code.clone();
+        this.stack = new SalaStack(program.maxStack);
+        this.vars = new SalaVariables(program.vars);
+        this.out = out;
+        this.in = in;
+        this.profiler = profiler;
+        this.checked = !program.verified;
+    }
+
+    // continues with the stack and variables of an earlier execution from pc, which the verifier didn't start from,
+    // so every instruction checks the stack
+    Execution(@NotNull Program program, @NotNull SalaOutput out, @NotNull SalaInput in, @NotNull SalaStack stack, @NotNull SalaVariables vars, int pc) {
+        this.program = program;
+        this.code = program.code.clone();
+        this.stack = stack;
+        this.vars = vars;
+        this.out = out;
+        this.in = in;
+        this.profiler = null;
+        this.checked = true;
+        this.pc = pc;
+    }
+
+    public Execution(@NotNull Program program, @NotNull SalaOutput out, @NotNull SalaInput in) throws SalaException {
+        this(program, out, in, null);
+    }
+
+    public @NotNull Program program() {
+        return program;
+    }
+
+    public @NotNull SalaStack stack() {
+        return stack;
+    }
+
+    public @NotNull SalaVariables variables() {
+        return vars;
+    }
+
+    public int pc() {
+        return pc;
+    }
+
+    public boolean finished() {
+        return pc >= code.length;
+    }
+
+    public long executed() {
+        return executed;
+    }
+
+    public long fuel() {
+        return fuel;
+    }
+
+    // the most instructions this execution may ever run, after which it fails instead of running on
+    public Execution fuel(long fuel) {
+        this.fuel = fuel;
+        return this;
+    }
+
+    private static void arithmetic(int op, SalaStack stack, Token site) throws SalaException {
+        if (stack.topIsInts()) {
+            var b = stack.popInt();
+            var a = stack.popInt();
+            stack.pushInt(switch (op) {
+                case Opcodes.ADD_ANY -> a + b;
+                case Opcodes.SUB_ANY -> a - b;
+                case Opcodes.MUL_ANY -> a * b;
+                case Opcodes.DIV_ANY -> a / b;
+                default -> a % b;
+            });
+        } else if (stack.topIsNumbers()) {
+            var b = stack.popFloat();
+            var a = stack.popFloat();
+            stack.pushFloat(switch (op) {
+                case Opcodes.ADD_ANY -> a + b;
+                case Opcodes.SUB_ANY -> a - b;
+                case Opcodes.MUL_ANY -> a * b;
+                case Opcodes.DIV_ANY -> a / b;
+                default -> a % b;
+            });
+        } else {
+            var b = stack.popRaw();
+            var a = stack.popRaw();
+            stack.push(switch (op) {
+                case Opcodes.ADD_ANY -> StandardInstructions.add(site, a, b);
+                case Opcodes.SUB_ANY -> StandardInstructions.sub(site, a, b);
+                case Opcodes.MUL_ANY -> StandardInstructions.mul(site, a, b);
+                case Opcodes.DIV_ANY -> StandardInstructions.div(site, a, b);
+                default -> StandardInstructions.mod(site, a, b);
+            });
+        }
+    }
+
+    private static boolean compare(int op, SalaStack stack, Token site) throws SalaException {
+        if (stack.topIsInts()) {
+            var b = stack.popInt();
+            var a = stack.popInt();
+            return op == Opcodes.JLT_ANY ? a < b : a > b;
+        } else if (stack.topIsNumbers()) {
+            var b = stack.popFloat();
+            var a = stack.popFloat();
+            return op == Opcodes.JLT_ANY ? a < b : a > b;
+        }
+        var b = stack.pop();
+        var a = stack.pop();
+        return op == Opcodes.JLT_ANY ? StandardInstructions.lessThan(site, a, b) : StandardInstructions.greaterThan(site, a, b);
+    }
+
+    public void run() throws SalaException {
+        run(Long.MAX_VALUE);
+    }
+
+    // runs at most quantum instructions and returns whether the program ended; when it didn't, calling run again
+    // resumes it where it stopped, since every instruction boundary is a safe point
+    public boolean run(long quantum) throws SalaException {
+        var budget = Math.min(quantum, fuel - executed);
+        var granted = budget;
+        var stack = this.stack;
+        var vars = this.vars;
+        var checked = this.checked;
+        var code = this.code;
+        var constants = program.constants;
+        var sites = program.sites;
+        var extensions = StandardInstructions.EXTENSIONS;
+
+        var pc = this.pc;
+        var frames = this.frames;
+        var fp = this.fp;
+        try {
+            while (pc < code.length && budget > 0) {
+                budget--;
+                switch (code[pc]) {
+                    case Opcodes.PUSH -> {
+                        stack.push(constants[code[pc + 1]]);
+                        pc += 2;
+                    }
+                    case Opcodes.PUSH_INT -> {
+                        stack.pushInt(code[pc + 1]);
+                        pc += 2;
+                    }
+                    case Opcodes.PRINT -> {
+                        if (checked && stack.empty()) throw new SalaException(sites[pc].err("stack underflow"));
+                        if (stack.tag(0) == SalaStack.INT) {
+                            out.printInt(stack.popInt());
+                        } else {
+                            out.print(stack.popRaw());
+                        }
+                        pc++;
+                    }
+                    case Opcodes.GV -> {
+                        stack.load(vars, code[pc + 1]);
+                        pc += 2;
+                    }
+                    case Opcodes.SV -> {
+                        if (checked && stack.empty()) throw new SalaException(sites[pc].err("stack underflow"));
+                        stack.store(vars, code[pc + 1]);
+                        pc += 2;
+                    }
+                    case Opcodes.TEE -> {
+                        if (checked && stack.empty()) throw new SalaException(sites[pc].err("stack underflow"));
+                        stack.storeTop(vars, code[pc + 1]);
+                        pc += 2;
+                    }
+                    case Opcodes.CALL -> {
+                        if (fp == frames.length) {
+                            if (fp == MAX_FRAMES) throw new SalaException(sites[pc].err("call stack overflow"));
+                            frames = this.frames = Arrays.copyOf(frames, fp * 2);
+                        }
+                        frames[fp++] = pc + 2;
+                        pc = code[pc + 1];
+                    }
+                    case Opcodes.RET -> pc = frames[--fp];
+                    case Opcodes.HALT -> pc = code.length;
+                    case Opcodes.PROF -> {
+                        budget++;
+                        profiler.tick(code[pc + 1]);
+                        pc += 2;
+                    }
+                    case Opcodes.CLEAR -> {
+                        stack.clear();
+                        pc++;
+                    }
+                    case Opcodes.DUP -> {
+                        if (checked && stack.empty()) throw new SalaException(sites[pc].err("stack underflow"));
+                        stack.dup();
+                        pc++;
+                    }
+                    case Opcodes.ADD, Opcodes.SUB, Opcodes.MUL, Opcodes.DIV, Opcodes.MOD, Opcodes.JLT, Opcodes.JGT -> {
+                        if (checked && !stack.hasAmount(2)) throw new SalaException(sites[pc].err("stack underflow"));
+                        // rewriting an instruction runs it again, which mustn't be charged twice
+                        budget++;
+                        code[pc] = stack.topIsInts() ? Opcodes.quickenedInt(code[pc]) : Opcodes.generic(code[pc]);
+                    }
+                    case Opcodes.ADD_II -> {
+                        if (checked && !stack.hasAmount(2)) throw new SalaException(sites[pc].err("stack underflow"));
+                        if (stack.topIsInts()) {
+                            var b = stack.popInt();
+                            stack.pushInt(stack.popInt() + b);
+                            pc++;
+                        } else {
+                            budget++;
+                            code[pc] = Opcodes.ADD_ANY;
+                        }
+                    }
+                    case Opcodes.SUB_II -> {
+                        if (checked && !stack.hasAmount(2)) throw new SalaException(sites[pc].err("stack underflow"));
+                        if (stack.topIsInts()) {
+                            var b = stack.popInt();
+                            stack.pushInt(stack.popInt() - b);
+                            pc++;
+                        } else {
+                            budget++;
+                            code[pc] = Opcodes.SUB_ANY;
+                        }
+                    }
+                    case Opcodes.MUL_II -> {
+                        if (checked && !stack.hasAmount(2)) throw new SalaException(sites[pc].err("stack underflow"));
+                        if (stack.topIsInts()) {
+                            var b = stack.popInt();
+                            stack.pushInt(stack.popInt() * b);
+                            pc++;
+                        } else {
+                            budget++;
+                            code[pc] = Opcodes.MUL_ANY;
+                        }
+                    }
+                    case Opcodes.DIV_II -> {
+                        if (checked && !stack.hasAmount(2)) throw new SalaException(sites[pc].err("stack underflow"));
+                        if (stack.topIsInts()) {
+                            var b = stack.popInt();
+                            stack.pushInt(stack.popInt() / b);
+                            pc++;
+                        } else {
+                            budget++;
+                            code[pc] = Opcodes.DIV_ANY;
+                        }
+                    }
+                    case Opcodes.MOD_II -> {
+                        if (checked && !stack.hasAmount(2)) throw new SalaException(sites[pc].err("stack underflow"));
+                        if (stack.topIsInts()) {
+                            var b = stack.popInt();
+                            stack.pushInt(stack.popInt() % b);
+                            pc++;
+                        } else {
+                            budget++;
+                            code[pc] = Opcodes.MOD_ANY;
+                        }
+                    }
+                    case Opcodes.ADD_ANY, Opcodes.SUB_ANY, Opcodes.MUL_ANY, Opcodes.DIV_ANY, Opcodes.MOD_ANY -> {
+                        if (checked && !stack.hasAmount(2)) throw new SalaException(sites[pc].err("stack underflow"));
+                        arithmetic(code[pc], stack, sites[pc]);
+                        pc++;
+                    }
+                    case Opcodes.J -> {
+                        if (checked && !stack.hasAmount(2)) throw new SalaException(sites[pc].err("stack underflow"));
+                        stack.popRaw();
+                        stack.popRaw();
+                        pc = code[pc + 1];
+                    }
+                    case Opcodes.JEQ -> {
+                        if (checked && !stack.hasAmount(2)) throw new SalaException(sites[pc].err("stack underflow"));
+                        boolean jump;
+                        if (stack.topIsInts()) {
+                            jump = stack.popInt() == stack.popInt();
+                        } else {
+                            var b = stack.pop();
+                            jump = stack.pop().equals(b);
+                        }
+                        pc = jump ? code[pc + 1] : pc + 2;
+                    }
+                    case Opcodes.JNE -> {
+                        if (checked && !stack.hasAmount(2)) throw new SalaException(sites[pc].err("stack underflow"));
+                        boolean jump;
+                        if (stack.topIsInts()) {
+                            jump = stack.popInt() != stack.popInt();
+                        } else {
+                            var b = stack.pop();
+                            jump = !stack.pop().equals(b);
+                        }
+                        pc = jump ? code[pc + 1] : pc + 2;
+                    }
+                    case Opcodes.JLT_II -> {
+                        if (checked && !stack.hasAmount(2)) throw new SalaException(sites[pc].err("stack underflow"));
+                        if (stack.topIsInts()) {
+                            var b = stack.popInt();
+                            pc = stack.popInt() < b ? code[pc + 1] : pc + 2;
+                        } else {
+                            budget++;
+                            code[pc] = Opcodes.JLT_ANY;
+                        }
+                    }
+                    case Opcodes.JGT_II -> {
+                        if (checked && !stack.hasAmount(2)) throw new SalaException(sites[pc].err("stack underflow"));
+                        if (stack.topIsInts()) {
+                            var b = stack.popInt();
+                            pc = stack.popInt() > b ? code[pc + 1] : pc + 2;
+                        } else {
+                            budget++;
+                            code[pc] = Opcodes.JGT_ANY;
+                        }
+                    }
+                    case Opcodes.JLT_ANY, Opcodes.JGT_ANY -> {
+                        if (checked && !stack.hasAmount(2)) throw new SalaException(sites[pc].err("stack underflow"));
+                        pc = compare(code[pc], stack, sites[pc]) ? code[pc + 1] : pc + 2;
+                    }
+                    case Opcodes.ADDK -> {
+                        if (checked && stack.empty()) throw new SalaException(sites[pc].err("stack underflow"));
+                        switch (stack.tag(0)) {
+                            case SalaStack.INT -> stack.pushInt(stack.popInt() + code[pc + 1]);
+                            case SalaStack.FLOAT -> stack.pushFloat(stack.popFloat() + code[pc + 1]);
+                            default -> stack.push(StandardInstructions.add(sites[pc], stack.pop(), code[pc + 1]));
+                        }
+                        pc += 2;
+                    }
+                    case Opcodes.JEQK, Opcodes.JNEK -> {
+                        if (checked && stack.empty()) throw new SalaException(sites[pc].err("stack underflow"));
+                        var equal = stack.tag(0) == SalaStack.INT ? stack.peekInt() == code[pc + 1] : stack.peek().equals(code[pc + 1]);
+                        pc = equal == (code[pc] == Opcodes.JEQK) ? code[pc + 2] : pc + 3;
+                    }
+                    case Opcodes.JLTK -> {
+                        if (checked && stack.empty()) throw new SalaException(sites[pc].err("stack underflow"));
+                        var jump = switch (stack.tag(0)) {
+                            case SalaStack.INT -> stack.peekInt() < code[pc + 1];
+                            case SalaStack.FLOAT -> stack.peekFloat() < code[pc + 1];
+                            default -> StandardInstructions.lessThan(sites[pc], stack.peek(), code[pc + 1]);
+                        };
+                        pc = jump ? code[pc + 2] : pc + 3;
+                    }
+                    case Opcodes.JGTK -> {
+                        if (checked && stack.empty()) throw new SalaException(sites[pc].err("stack underflow"));
+                        var jump = switch (stack.tag(0)) {
+                            case SalaStack.INT -> stack.peekInt() > code[pc + 1];
+                            case SalaStack.FLOAT -> stack.peekFloat() > code[pc + 1];
+                            default -> StandardInstructions.greaterThan(sites[pc], stack.peek(), code[pc + 1]);
+                        };
+                        pc = jump ? code[pc + 2] : pc + 3;
+                    }
+                    case Opcodes.READLN -> {
+                        if (out instanceof BufferedSalaOutput b) b.beforeInput();
+                        var line = in.get();
+                        stack.push(line == null ? "" : line);
+                        stack.pushInt(line == null ? 0 : 1);
+                        pc++;
+                    }
+                    case Opcodes.READINT -> {
+                        if (out instanceof BufferedSalaOutput b) b.beforeInput();
+                        long value;
+                        try {
+                            value = in.getInt();
+                        } catch (NumberFormatException e) {
+                            throw new SalaException(sites[pc].err("input is not an integer"));
+                        }
+                        stack.pushInt(value == SalaInput.EOF ? 0 : (int) value);
+                        stack.pushInt(value == SalaInput.EOF ? 0 : 1);
+                        pc++;
+                    }
+                    case Opcodes.READALL -> {
+                        if (out instanceof BufferedSalaOutput b) b.beforeInput();
+                        stack.push(in.getAll());
+                        pc++;
+                    }
+                    default -> {
+                        if (code[pc] < Opcodes.FIRST_EXTENSION) throw new SalaException(sites[pc].err("invalid opcode %d", code[pc]));
+                        var extension = extensions[code[pc] - Opcodes.FIRST_EXTENSION];
+                        if (checked && !stack.hasAmount(extension.pops())) throw new SalaException(sites[pc].err("stack underflow"));
+                        extension.body().execute(stack, sites[pc]);
+                        pc++;
+                    }
+                }
+            }
+        } finally {
+            this.pc = pc;
+            this.fp = fp;
+            this.executed += granted - budget;
+            if (profiler != null) profiler.stop();
+        }
+
+        if (pc >= code.length) return true;
+        if (executed >= fuel) throw new SalaException(sites[pc].err("out of fuel after %d instructions", executed));
+        return false;
+    }
+}
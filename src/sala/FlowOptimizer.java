@@ -0,0 +1,198 @@
+package sala;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// runs before the peephole pass: folds instructions whose operands are constants, then removes the blocks of the
+// control flow graph that can't be reached and the labels nothing jumps to
+final class FlowOptimizer {
+    // longer strings are left to be built at runtime instead of growing the constant pool
+    private static final int MAX_STRING = 1 << 12;
+
+    private final List<Object> constants;
+    private final HashMap<Object, Integer> constantIndex = new HashMap<>();
+    private final Map<String, Integer> labels;
+    private final Map<String, Integer> report;
+
+    private FlowOptimizer(List<Object> constants, Map<String, Integer> labels, Map<String, Integer> report) {
+        this.constants = constants;
+        this.labels = labels;
+        this.report = report;
+        for (int i = 0; i < constants.size(); i++) constantIndex.putIfAbsent(constants.get(i), i);
+    }
+
+    // constants is rewritten to only hold the constants the returned ops still push
+    static List<Op> optimize(List<Op> ops, List<Object> constants, Map<String, Integer> labels, Map<String, Integer> report) {
+        var optimizer = new FlowOptimizer(constants, labels, report);
+        optimizer.prune(ops);
+        ops = optimizer.eliminate(optimizer.fold(ops));
+        optimizer.prune(ops);
+        return optimizer.compact(ops);
+    }
+
+    private void prune(List<Op> ops) {
+        var targeted = targeted(ops);
+        for (var it = labels.values().iterator(); it.hasNext(); ) {
+            if (targeted[it.next()]) continue;
+            it.remove();
+            report.merge("unused label", 1, Integer::sum);
+        }
+    }
+
+    private static boolean[] targeted(List<Op> ops) {
+        var targeted = new boolean[ops.size() + 1];
+        for (Op op : ops) if (Opcodes.hasTarget(op.opcode)) targeted[op.operand] = true;
+        return targeted;
+    }
+
+    private List<Op> fold(List<Op> ops) {
+        var targeted = targeted(ops);
+        var out = new ArrayList<Op>(ops.size());
+        // whether anything jumps to the op at each position of out, which keeps it from being folded into the one before
+        var pinned = new boolean[ops.size() + 1];
+        var index = new int[ops.size() + 1];
+
+        for (int i = 0; i < ops.size(); i++) {
+            var op = ops.get(i);
+            var n = out.size();
+            index[i] = n;
+
+            Object a = null, b = null;
+            if (!targeted[i] && !pinned[n] && n > 0) {
+                b = value(out.get(n - 1));
+                if (n > 1 && !pinned[n - 1]) a = value(out.get(n - 2));
+            }
+            var value = a != null && b != null ? fold(op, a, b) : null;
+            var taken = a != null && b != null && value == null ? branch(op.opcode, a, b) : null;
+
+            if (op.opcode == Opcodes.DUP && b != null) {
+                out.add(push(b, op.site));
+                fired("push k; dup -> push k; push k");
+            } else if (value != null) {
+                out.removeLast();
+                out.set(n - 2, push(value, op.site));
+                pinned[n - 1] = false;
+                index[i] = n - 2;
+                fired("push k; push k; " + Opcodes.name(op.opcode) + " -> push k");
+            } else if (taken != null) {
+                if (taken) {
+                    out.add(new Op(Opcodes.J, op.operand, op.site));
+                    fired("push k; push k; " + Opcodes.name(op.opcode) + " -> push k; push k; j");
+                } else {
+                    // nothing is left of the comparison, so whatever jumped to its first push now lands on what follows
+                    out.removeLast();
+                    out.removeLast();
+                    pinned[n - 1] = false;
+                    index[i] = n - 2;
+                    fired("push k; push k; " + Opcodes.name(op.opcode) + " -> nothing");
+                }
+            } else {
+                out.add(op);
+                pinned[n] |= targeted[i];
+            }
+        }
+        index[ops.size()] = out.size();
+
+        remap(out, index);
+        return out;
+    }
+
+    private List<Op> eliminate(List<Op> ops) {
+        var graph = ControlFlowGraph.of(ops);
+        var out = new ArrayList<Op>(ops.size());
+        var index = new int[ops.size() + 1];
+
+        for (var block : graph.blocks()) {
+            for (int i = block.start(); i < block.end(); i++) {
+                index[i] = out.size();
+                if (block.isReachable()) {
+                    out.add(ops.get(i));
+                } else {
+                    fired("unreachable instruction");
+                }
+            }
+            if (!block.isReachable()) labels.values().removeIf(target -> target >= block.start() && target < block.end());
+        }
+        index[ops.size()] = out.size();
+
+        remap(out, index);
+        return out;
+    }
+
+    private List<Op> compact(List<Op> ops) {
+        var used = new ArrayList<Object>();
+        var remapped = new HashMap<Integer, Integer>();
+        for (Op op : ops) {
+            if (op.opcode != Opcodes.PUSH) continue;
+            op.operand = remapped.computeIfAbsent(op.operand, constant -> {
+                used.add(constants.get(constant));
+                return used.size() - 1;
+            });
+        }
+        constants.clear();
+        constants.addAll(used);
+        return ops;
+    }
+
+    private void remap(List<Op> ops, int[] index) {
+        for (Op op : ops) if (Opcodes.hasTarget(op.opcode)) op.operand = index[op.operand];
+        labels.replaceAll((_, target) -> index[target]);
+    }
+
+    private Object value(Op op) {
+        return switch (op.opcode) {
+            case Opcodes.PUSH_INT -> op.operand;
+            case Opcodes.PUSH -> constants.get(op.operand);
+            default -> null;
+        };
+    }
+
+    private Op push(Object value, Token site) {
+        if (value instanceof Integer n) return new Op(Opcodes.PUSH_INT, n, site);
+        var index = constantIndex.get(value);
+        if (index == null) {
+            index = constants.size();
+            constants.add(value);
+            constantIndex.put(value, index);
+        }
+        return new Op(Opcodes.PUSH, index, site);
+    }
+
+    // null when the instruction would fail at runtime or build too long a string, so it's left to do that
+    private static Object fold(Op op, Object a, Object b) {
+        if ((op.opcode == Opcodes.DIV || op.opcode == Opcodes.MOD) && b instanceof Integer n && n == 0) return null;
+        if (op.opcode == Opcodes.MUL && a instanceof String s && b instanceof Integer n && (n < 0 || (long) s.length() * n > MAX_STRING)) return null;
+
+        try {
+            var value = switch (op.opcode) {
+                case Opcodes.ADD -> StandardInstructions.add(op.site, a, b);
+                case Opcodes.SUB -> StandardInstructions.sub(op.site, a, b);
+                case Opcodes.MUL -> StandardInstructions.mul(op.site, a, b);
+                case Opcodes.DIV -> StandardInstructions.div(op.site, a, b);
+                case Opcodes.MOD -> StandardInstructions.mod(op.site, a, b);
+                default -> null;
+            };
+            // constants are only ever plain strings
+            value = SalaString.flatten(value);
+            return value instanceof String s && s.length() > MAX_STRING ? null : value;
+        } catch (SalaException e) {
+            return null;
+        }
+    }
+
+    private static Boolean branch(int opcode, Object a, Object b) {
+        return switch (opcode) {
+            case Opcodes.JEQ -> a.equals(b);
+            case Opcodes.JNE -> !a.equals(b);
+            case Opcodes.JLT -> a instanceof Integer x && b instanceof Integer y ? x < y : null;
+            case Opcodes.JGT -> a instanceof Integer x && b instanceof Integer y ? x > y : null;
+            default -> null;
+        };
+    }
+
+    private void fired(String rule) {
+        report.merge(rule, 1, Integer::sum);
+    }
+}
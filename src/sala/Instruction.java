@@ -3,16 +3,24 @@ package sala;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
 
 public class Instruction {
     private static class ExpectedToken {
         private final TokenTypes[] expectedTypes;
         private final String[] expectedLiterals;
+        private final EnumSet<TokenTypes> types;
+        private final Set<String> literals;
         private boolean trailing;
 
         public ExpectedToken(TokenTypes[] types, String[] literals) {
             this.expectedTypes = types;
             this.expectedLiterals = literals;
+            this.types = EnumSet.noneOf(TokenTypes.class);
+            this.types.addAll(Arrays.asList(types));
+            this.literals = new HashSet<>(Arrays.asList(literals));
         }
 
         public ExpectedToken(TokenTypes[] type, String literal) {
@@ -76,12 +84,12 @@ public class Instruction {
         }
 
         public void check(Token token) throws SalaException {
-            if (!Arrays.stream(expectedTypes).toList().contains(token.getType())) {
+            if (!types.contains(token.getType())) {
                 if (expectedTypes[0] == TokenTypes.NONE) throw new SalaException(token.err("expected EOL, but found '%s'", token.getType().name().toLowerCase()));
                 if (token.is(TokenTypes.NONE)) throw new SalaException(token.err("expected '%s', but found EOL", formatTypes()));
                 throw new SalaException(token.err("expected '%s', but found '%s'", formatTypes(), token.getType().name().toLowerCase()));
             } else if (expectedTypes[0] != TokenTypes.NONE && expectedLiterals.length != 0) {
-                if (!Arrays.stream(expectedLiterals).toList().contains(token.getLiteral())) {
+                if (!literals.contains(token.getLiteral())) {
                     if (token.is(TokenTypes.NONE)) throw new SalaException(token.err("expected '%s', but found EOL", formatLiterals()));
                     throw new SalaException(token.err("expected '%s', but found '%s'", formatLiterals(), token.getLiteral()));
                 }
@@ -89,6 +97,8 @@ public class Instruction {
         }
     }
 
+    private static final ExpectedToken EOL = new ExpectedToken(TokenTypes.NONE);
+
     private ExpectedToken[] expected;
 
     public Instruction() {
@@ -144,24 +154,22 @@ public class Instruction {
     public void check(Token[] tl) throws SalaException {
         if (tl.length == 0) return;
 
-        if (expected.length == 0) {
-            expectEOL();
-        } else if (expected[expected.length - 1].expectedTypes[0] != TokenTypes.NONE && !expected[expected.length - 1].trailing) {
-            expectEOL();
-        }
-
         for (int i = 0; i < expected.length; i++) {
             if (expected[i].trailing) {
                 var e = expected[i];
                 for (int j = i; j < tl.length; j++) {
-                    if (!Arrays.stream(e.expectedTypes).toList().contains(tl[j].getType())) {
+                    if (!e.types.contains(tl[j].getType())) {
                         throw new SalaException(tl[j].err("expected '%s', but found '%s' instead", e.formatTypes(), tl[j].getType().name().toLowerCase()));
                     }
                 }
-                break;
+                return;
             } else {
                 expected[i].check(i < tl.length ? tl[i] : new Token());
             }
         }
+
+        if (expected.length == 0 || expected[expected.length - 1].expectedTypes[0] != TokenTypes.NONE) {
+            EOL.check(expected.length < tl.length ? tl[expected.length] : new Token());
+        }
     }
 }
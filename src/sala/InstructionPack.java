@@ -0,0 +1,10 @@
+package sala;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+// a set of native instructions found through ServiceLoader, listed in META-INF/services/sala.InstructionPack
+public interface InstructionPack {
+    @NotNull List<NativeInstruction> instructions();
+}
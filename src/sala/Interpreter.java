@@ -1,35 +1,50 @@
 package sala;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
 
 public class Interpreter {
-    static class LineLexer {
-        char[] text;
+    static class Lexer {
+        private static final Token[] EMPTY = new Token[0];
+
+        final CharSequence text;
+        final int end;
         int idx;
         int ln;
+        int lineStart;
         char ch;
 
-        LineLexer(@NotNull String text, int ln) {
-            this.text = text.toCharArray();
-            idx = -1;
+        Lexer(@NotNull CharSequence text) {
+            this(text, 0, text.length(), 0);
+        }
+
+        // lexes the lines of text in [from, to), the first of which is line ln
+        Lexer(@NotNull CharSequence text, int from, int to, int ln) {
+            this.text = text;
+            end = to;
+            idx = from - 1;
             this.ln = ln;
+            lineStart = from;
             ch = 0;
             this.advance();
         }
 
         private void advance() {
             idx++;
-            ch = idx < text.length ? text[idx] : 0;
+            ch = idx < end ? text.charAt(idx) : 0;
         }
 
-        private Character peek() {
-            return idx - 1 > -1 ? text[idx - 1] : 0;
+        private int col() {
+            return idx - lineStart;
         }
 
         private boolean notEnded() {
-            return ch != 0 && ch != '\n';
+            return idx < end && ch != '\n';
         }
 
         private boolean whitespace() {
@@ -44,45 +59,32 @@ public class Interpreter {
             return (ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || numChar() || ch == '_';
         }
 
-        private Token collectWord(int mode) {
-            var start = idx;
-            var str = new StringBuilder();
+        private Token collectWord(TokenTypes type) {
+            var start = col();
 
-            if (mode == 1 || mode == 2) advance();
+            if (type != TokenTypes.WORD) advance();
 
-            while (notEnded() && wordChar()) {
-                str.append(ch);
-                advance();
-            }
-
-            if (mode == 1) {
-                return new Token(TokenTypes.DIRECTIVE, str.toString(), start, ln);
-            } else if (mode == 2) {
-                return new Token(TokenTypes.LABEL, str.toString(), start, ln);
-            } else if (mode == 3) {
-                return new Token(TokenTypes.ALIAS, str.toString(), start, ln);
-            }
+            var offset = idx;
+            while (notEnded() && wordChar()) advance();
 
-            return new Token(TokenTypes.WORD, str.toString(), start, ln);
+            return new Token(type, text, offset, idx - offset, start, ln);
         }
 
         private Token collectNumber() {
-            var start = idx;
-            var str = new StringBuilder();
+            var start = col();
+            var offset = idx;
 
-            while (notEnded() && numChar()) {
-                str.append(ch);
-                advance();
-            }
+            while (notEnded() && numChar()) advance();
 
-            return new Token(TokenTypes.NUMBER, str.toString(), start, ln);
+            return new Token(TokenTypes.NUMBER, text, offset, idx - offset, start, ln);
         }
 
         private Token collectString() throws SalaException {
-            var start = idx;
-            var str = new StringBuilder();
+            var start = col();
+            StringBuilder str = null;
 
             advance();
+            var offset = idx;
 
             var escaped = false;
             while (notEnded()) {
@@ -92,33 +94,36 @@ public class Interpreter {
                         case 'n' -> '\n';
                         case 'r' -> '\r';
                         case '0' -> '\0';
-                        default -> throw new SalaException(String.format("error on line %d, col %d: invalid escape character '%c'", ln + 1, idx + 1, ch));
+                        default -> throw new SalaException(String.format("error on line %d, col %d: invalid escape character '%c'", ln + 1, col() + 1, ch));
                     };
                     str.append(c);
                     escaped = false;
                     advance();
                 } else if (ch == '\\') {
+                    if (str == null) str = new StringBuilder().append(text, offset, idx);
                     escaped = true;
                     advance();
                 } else if (ch == '"') {
                     break;
                 } else {
-                    str.append(ch);
+                    if (str != null) str.append(ch);
                     advance();
                 }
             }
 
-            if (ch != '"') {
+            if (idx >= end || ch != '"') {
                 throw new SalaException(String.format("error on line %d, col %d: unterminated string literal", ln + 1, start + 1));
             }
 
+            var length = idx - offset;
             advance();
 
-            return new Token(TokenTypes.STRING, str.toString(), start, ln);
+            if (str != null) return new Token(TokenTypes.STRING, str.toString(), start, ln);
+            return new Token(TokenTypes.STRING, text, offset, length, start, ln);
         }
 
-        public @NotNull Token[] lex() throws SalaException {
-            var tokens = new ArrayList<Token>();
+        private @NotNull Token[] line(ArrayList<Token> tokens) throws SalaException {
+            tokens.clear();
 
             while (notEnded()) {
                 if (whitespace()) {
@@ -128,38 +133,74 @@ public class Interpreter {
                 } else if (numChar()) {
                     tokens.add(collectNumber());
                 } else if (ch == '.') {
-                    tokens.add(collectWord(1));
+                    tokens.add(collectWord(TokenTypes.DIRECTIVE));
                 } else if (ch == ':') {
-                    tokens.add(collectWord(2));
+                    tokens.add(collectWord(TokenTypes.LABEL));
                 } else if (ch == '$') {
-                    tokens.add(collectWord(3));
-                }else if (wordChar()) {
-                    tokens.add(collectWord(0));
+                    tokens.add(collectWord(TokenTypes.ALIAS));
+                } else if (wordChar()) {
+                    tokens.add(collectWord(TokenTypes.WORD));
                 } else if (ch == ';') {
-                    break;
+                    while (notEnded()) advance();
                 } else {
-                    throw new SalaException(String.format("error on line %d, col %d: illegal character '%c'", ln + 1, idx + 1, ch));
+                    throw new SalaException(String.format("error on line %d, col %d: illegal character '%c'", ln + 1, col() + 1, ch));
                 }
             }
 
-            return tokens.toArray(new Token[tokens.size()]);
+            return tokens.isEmpty() ? EMPTY : tokens.toArray(new Token[tokens.size()]);
+        }
+
+        // lexes text that holds a single line as line ln of a program
+        @NotNull Token[] lexLine(int ln) throws SalaException {
+            this.ln = ln;
+            return line(new ArrayList<>());
+        }
+
+        public @NotNull Token[][] lex() throws SalaException {
+            var lines = new ArrayList<Token[]>();
+            var tokens = new ArrayList<Token>();
+
+            while (idx < end) {
+                lines.add(line(tokens));
+                advance();
+                ln++;
+                lineStart = idx;
+            }
+
+            return lines.toArray(new Token[lines.size()][]);
         }
     }
 
     private final @NotNull SalaOutput out;
     private final @NotNull  SalaInput in;
+    private @Nullable Profiler profiler;
+    private long fuel = Long.MAX_VALUE;
+    private Backend backend = Backend.STACK;
+
+    public enum Backend {
+        STACK,
+        // translates the program to register code first, falling back to the stack for programs it can't translate
+        // and when profiling, since the profiler counts stack instructions
+        REGISTER,
+    }
 
-    public static @NotNull Token[][] lexLines(@NotNull String text) throws SalaException {
-        var tlines = new ArrayList<Token[]>();
-
-        var ln = 0;
-        for (String line : text.split("\n")) {
-            var lexer = new LineLexer(line, ln);
-            tlines.add(lexer.lex());
-            ln++;
+    public static @NotNull Token[][] lexLines(@NotNull CharSequence text) throws SalaException {
+        if (!Events.enabled()) return ParallelLexer.lex(text);
+        var event = new Events.Lex();
+        event.begin();
+        Token[][] lines;
+        try {
+            lines = ParallelLexer.lex(text);
+        } catch (SalaException e) {
+            Events.failed("lex", e);
+            throw e;
         }
-
-        return tlines.toArray(new Token[tlines.size()][]);
+        if (event.shouldCommit()) {
+            event.lines = lines.length;
+            event.characters = text.length();
+            event.commit();
+        }
+        return lines;
     }
 
     public Interpreter(@NotNull SalaOutput out, @NotNull SalaInput in) {
@@ -172,88 +213,97 @@ public class Interpreter {
         this.in = in;
     }
 
-    public void interpret(@NotNull Token[][] tokens) throws SalaException {
-        var stack = new SalaStack();
-        var vars = new Object[0];
-        var afterContent = false;
-        var labels = new HashMap<String, Integer>();
-        var directives = new HashMap<String, SalaEntry>((Map.of(
-
-        )));
-        var aliasMap = new HashMap<String, Token>();
-        var instructions = StandardInstructions.get(stack, vars, out, labels);
-
-        {
-            var ln = 0;
-            for (Token[] line : tokens) {
-                if (line.length != 0) {
-                    if (line[0].is(TokenTypes.LABEL)) {
-                        if (labels.get(line[0].getLiteral()) != null) {
-                            throw new SalaException(line[0].err("label '%s' already defined", line[0].getLiteral()));
-                        } else if (line.length > 1) {
-                            throw new SalaException(line[0].err("label is not alone on the line"));
-                        } else if (Objects.equals(line[0].getLiteral(), "")) {
-                            throw new SalaException(line[0].err("labels cannot be empty"));
-                        }
-                        labels.put(line[0].getLiteral(), ln);
-                    } else if (line[0].is(TokenTypes.WORD, "alias")) {
-                        var cmp = new Token[line.length - 1];
-                        System.arraycopy(line, 1, cmp, 0, line.length - 1);
-                        var aliasInstr = new Instruction().expect(TokenTypes.WORD).expect(new TokenTypes[]{TokenTypes.NUMBER, TokenTypes.STRING, TokenTypes.WORD, TokenTypes.LABEL, TokenTypes.DIRECTIVE, TokenTypes.ALIAS});
-                        aliasInstr.check(cmp);
-                        aliasMap.put(cmp[0].getLiteral(), cmp[1]);
-                    } else {
-                        var i = 0;
-                        for (Token t : line) {
-                            if (t.is(TokenTypes.ALIAS)) tokens[ln][i] = t.fromAlias(aliasMap);
-                            i++;
-                        }
-                    }
-                }
-                ln++;
+    public Interpreter profile(@Nullable Profiler profiler) {
+        this.profiler = profiler;
+        return this;
+    }
+
+    public Interpreter fuel(long fuel) {
+        this.fuel = fuel;
+        return this;
+    }
+
+    public Interpreter backend(@NotNull Backend backend) {
+        this.backend = backend;
+        return this;
+    }
+
+    public void interpret(@NotNull Program program) throws SalaException {
+        try {
+            var registers = backend == Backend.REGISTER && profiler == null ? RegisterProgram.translate(program) : null;
+            if (registers != null) {
+                run(new RegisterExecution(registers, out, in).fuel(fuel), program);
+            } else {
+                run(new Execution(program, out, in, profiler).fuel(fuel));
+            }
+        } catch (Throwable e) {
+            // a failed flush mustn't hide why the program stopped
+            try {
+                flush();
+            } catch (UncheckedIOException f) {
+                e.addSuppressed(f);
             }
+            throw e;
         }
+        flush();
+    }
 
-        for (int i = 0; i < tokens.length; i++) {
-            // System.out.println(stack);
-            var line = tokens[i];
-            if (line.length == 0) continue;
-            var t = line[0];
-
-            if (t.is(TokenTypes.LABEL)) {
-                afterContent = true;
-            } else if (t.is(TokenTypes.DIRECTIVE)) {
-                if (afterContent) throw new SalaException(t.err("directives can only be used at the top of the file before any code"));
-
-                var d = directives.get(t.getLiteral());
-                if (d == null) throw new SalaException(t.err("unknown directive '%s'", t.getLiteral()));
-
-                var cmp = new Token[line.length - 1];
-                System.arraycopy(line, 1, cmp, 0, line.length - 1);
-                d.instruction.check(cmp);
-                var r = new Ref<>(i);
-                d.effect.happen(r, t, cmp);
-                i = r.value;
-            } else if (t.is(TokenTypes.WORD)) {
-                if (t.is("alias")) continue;
-                afterContent = true;
-
-                var ins = instructions.get(t.getLiteral());
-                if (ins == null) throw new SalaException(t.err("unknown instruction '%s'", t.getLiteral()));
-
-                var cmp = new Token[line.length - 1];
-                System.arraycopy(line, 1, cmp, 0, line.length - 1);
-                ins.instruction.check(cmp);
-                var r = new Ref<>(i);
-                ins.effect.happen(r, t, cmp);
-                i = r.value;
+    private void flush() {
+        if (out instanceof Flushable f) {
+            try {
+                f.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    // runs an execution to the end and records it; label samples are taken between quanta, so the execution only stops
+    // every so often when they're being recorded
+    static void run(Execution execution) throws SalaException {
+        var program = execution.program();
+        var event = Events.execute();
+        var labels = Events.labels(program);
+        var failed = true;
+        try {
+            if (labels == null) {
+                execution.run();
+            } else {
+                while (!execution.run(Events.SAMPLE_INTERVAL)) labels.sample(program.sites[execution.pc()]);
+            }
+            failed = false;
+        } catch (SalaException e) {
+            Events.failed("run", e);
+            throw e;
+        } finally {
+            Events.executed(event, Backend.STACK.name(), execution.executed(), execution.stack().peak(), failed);
+        }
+    }
+
+    private static void run(RegisterExecution execution, Program program) throws SalaException {
+        var event = Events.execute();
+        var labels = Events.labels(program);
+        var failed = true;
+        try {
+            if (labels == null) {
+                execution.run();
             } else {
-                throw new SalaException(t.err("unexpected %s", t.getType().name().toLowerCase()));
+                while (!execution.run(Events.SAMPLE_INTERVAL)) labels.sample(execution.program().sites[execution.pc()]);
             }
+            failed = false;
+        } catch (SalaException e) {
+            Events.failed("run", e);
+            throw e;
+        } finally {
+            Events.executed(event, Backend.REGISTER.name(), execution.executed(), execution.peak(), failed);
         }
     }
 
-    public void interpret(@NotNull String text) throws SalaException {
+    public void interpret(@NotNull Token[][] tokens) throws SalaException {
+        interpret(new Compiler().compile(tokens));
+    }
+
+    public void interpret(@NotNull CharSequence text) throws SalaException {
         interpret(lexLines(text));
     }
 }
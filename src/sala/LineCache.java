@@ -0,0 +1,61 @@
+package sala;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+// lexes a program a line at a time and keeps the tokens of every line by its content, so lexing a new version of the
+// same program only lexes the lines that changed; no token spans two lines, so each can be lexed on its own
+public final class LineCache {
+    private HashMap<String, Token[]> lines = new HashMap<>();
+    private int lexed;
+    private int reused;
+
+    public @NotNull Token[][] lex(@NotNull CharSequence text) throws SalaException {
+        // only the lines of the latest version are kept, so the cache doesn't grow with every edit
+        var previous = lines;
+        var current = new HashMap<String, Token[]>();
+        var result = new ArrayList<Token[]>();
+        lexed = 0;
+        reused = 0;
+
+        for (int start = 0, ln = 0; start < text.length(); ln++) {
+            var end = start;
+            while (end < text.length() && text.charAt(end) != '\n') end++;
+            var line = text.subSequence(start, end).toString();
+
+            var tokens = current.get(line);
+            if (tokens == null) tokens = previous.get(line);
+            if (tokens == null) {
+                tokens = new Interpreter.Lexer(line).lexLine(ln);
+                lexed++;
+            } else {
+                tokens = atLine(tokens, ln);
+                reused++;
+            }
+            current.put(line, tokens);
+            result.add(tokens);
+            start = end + 1;
+        }
+
+        lines = current;
+        return result.toArray(new Token[result.size()][]);
+    }
+
+    private static Token[] atLine(Token[] tokens, int ln) {
+        if (tokens.length == 0 || tokens[0].getLine() == ln) return tokens;
+        var moved = new Token[tokens.length];
+        for (int i = 0; i < tokens.length; i++) moved[i] = tokens[i].atLine(ln);
+        return moved;
+    }
+
+    // how many lines the last call to lex had to lex, and how many it took from the cache
+    public int lexed() {
+        return lexed;
+    }
+
+    public int reused() {
+        return reused;
+    }
+}
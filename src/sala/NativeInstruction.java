@@ -0,0 +1,14 @@
+package sala;
+
+import org.jetbrains.annotations.NotNull;
+
+// an instruction without operands that pops pops values and pushes pushes values, which the verifier relies on
+public record NativeInstruction(@NotNull String name, int pops, int pushes, @NotNull Body body) {
+    public interface Body {
+        void execute(SalaStack stack, Token site) throws SalaException;
+    }
+
+    public NativeInstruction {
+        if (pops < 0 || pushes < 0) throw new IllegalArgumentException("instruction '" + name + "' pops or pushes a negative amount");
+    }
+}
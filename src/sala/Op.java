@@ -0,0 +1,19 @@
+package sala;
+
+final class Op {
+    int opcode;
+    int operand;
+    int value;
+    final Token site;
+
+    Op(int opcode, int operand, Token site) {
+        this.opcode = opcode;
+        this.operand = operand;
+        this.site = site;
+    }
+
+    Op(int opcode, int value, int operand, Token site) {
+        this(opcode, operand, site);
+        this.value = value;
+    }
+}
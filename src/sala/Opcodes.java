@@ -0,0 +1,108 @@
+package sala;
+
+public final class Opcodes {
+    public static final int PUSH = 0;
+    public static final int PRINT = 1;
+    public static final int CLEAR = 2;
+    public static final int DUP = 3;
+    public static final int ADD = 4;
+    public static final int SUB = 5;
+    public static final int MUL = 6;
+    public static final int DIV = 7;
+    public static final int MOD = 8;
+    public static final int J = 9;
+    public static final int JEQ = 10;
+    public static final int JNE = 11;
+    public static final int JLT = 12;
+    public static final int JGT = 13;
+    public static final int PUSH_INT = 14;
+    public static final int ADDK = 15;
+    public static final int JEQK = 16;
+    public static final int JNEK = 17;
+    public static final int JLTK = 18;
+    public static final int JGTK = 19;
+    public static final int ADD_II = 20;
+    public static final int SUB_II = 21;
+    public static final int MUL_II = 22;
+    public static final int DIV_II = 23;
+    public static final int MOD_II = 24;
+    public static final int JLT_II = 25;
+    public static final int JGT_II = 26;
+    public static final int ADD_ANY = 27;
+    public static final int SUB_ANY = 28;
+    public static final int MUL_ANY = 29;
+    public static final int DIV_ANY = 30;
+    public static final int MOD_ANY = 31;
+    public static final int JLT_ANY = 32;
+    public static final int JGT_ANY = 33;
+    public static final int READLN = 34;
+    public static final int READINT = 35;
+    public static final int READALL = 36;
+    public static final int GV = 37;
+    public static final int SV = 38;
+    public static final int TEE = 39;
+    public static final int CALL = 40;
+    public static final int RET = 41;
+    public static final int HALT = 42;
+    public static final int PROF = 43;
+    // instructions from InstructionPacks are numbered from here on
+    public static final int FIRST_EXTENSION = 64;
+
+    static final String[] NAMES = {
+            "push", "print", "clear", "dup", "add", "sub", "mul", "div", "mod", "j", "jeq", "jne", "jlt", "jgt", "push",
+            "addk", "jeqk", "jnek", "jltk", "jgtk",
+            "add.ii", "sub.ii", "mul.ii", "div.ii", "mod.ii", "jlt.ii", "jgt.ii",
+            "add.any", "sub.any", "mul.any", "div.any", "mod.any", "jlt.any", "jgt.any",
+            "readln", "readint", "readall",
+            "gv", "sv", "tee",
+            "call", "ret", "halt",
+            "prof",
+    };
+
+    // the instructions that quicken, in the order of their .ii and .any forms
+    private static final int[] QUICKENING = {ADD, SUB, MUL, DIV, MOD, JLT, JGT};
+
+    private Opcodes() {
+    }
+
+    public static String name(int opcode) {
+        if (opcode >= 0 && opcode < NAMES.length) return NAMES[opcode];
+        if (StandardInstructions.isExtension(opcode)) return StandardInstructions.extension(opcode).name();
+        return "op" + opcode;
+    }
+
+    public static int base(int opcode) {
+        if (opcode >= ADD_II && opcode <= JGT_II) return QUICKENING[opcode - ADD_II];
+        if (opcode >= ADD_ANY && opcode <= JGT_ANY) return QUICKENING[opcode - ADD_ANY];
+        return opcode;
+    }
+
+    static int quickenedInt(int opcode) {
+        return opcode == JLT || opcode == JGT ? opcode - JLT + JLT_II : opcode - ADD + ADD_II;
+    }
+
+    static int generic(int opcode) {
+        var base = base(opcode);
+        return base == JLT || base == JGT ? base - JLT + JLT_ANY : base - ADD + ADD_ANY;
+    }
+
+    public static boolean isJump(int opcode) {
+        return switch (base(opcode)) {
+            case J, JEQ, JNE, JLT, JGT, JEQK, JNEK, JLTK, JGTK -> true;
+            default -> false;
+        };
+    }
+
+    // jumps and calls keep their target as the last word of the instruction
+    public static boolean hasTarget(int opcode) {
+        return opcode == CALL || isJump(opcode);
+    }
+
+    public static int width(int opcode) {
+        return switch (base(opcode)) {
+            case PUSH, PUSH_INT, ADDK, J, JEQ, JNE, JLT, JGT, GV, SV, TEE, CALL, PROF -> 2;
+            case JEQK, JNEK, JLTK, JGTK -> 3;
+            default -> 1;
+        };
+    }
+}
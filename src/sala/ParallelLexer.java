@@ -0,0 +1,94 @@
+package sala;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+// lexes large sources in line aligned chunks on the common fork/join pool; no token spans two lines, so a chunk only
+// needs to know the number of its first line, which is found by counting the newlines of the chunks before it first
+final class ParallelLexer {
+    // smaller sources are lexed on the calling thread, where splitting them up would cost more than it saves
+    static final int THRESHOLD = 1 << 18;
+    private static final int CHUNK = 1 << 16;
+
+    private ParallelLexer() {
+    }
+
+    static @NotNull Token[][] lex(@NotNull CharSequence text) throws SalaException {
+        if (text.length() < THRESHOLD || ForkJoinPool.getCommonPoolParallelism() < 2) return new Interpreter.Lexer(text).lex();
+
+        var starts = starts(text);
+        var chunks = starts.length - 1;
+        var pool = ForkJoinPool.commonPool();
+
+        var lines = new int[chunks + 1];
+        pool.invoke(new Each(0, chunks, i -> {
+            for (int j = starts[i]; j < starts[i + 1]; j++) if (text.charAt(j) == '\n') lines[i + 1]++;
+        }));
+        Arrays.parallelPrefix(lines, Integer::sum);
+
+        var results = new Token[chunks][][];
+        var errors = new SalaException[chunks];
+        pool.invoke(new Each(0, chunks, i -> {
+            try {
+                results[i] = new Interpreter.Lexer(text, starts[i], starts[i + 1], lines[i]).lex();
+            } catch (SalaException e) {
+                errors[i] = e;
+            }
+        }));
+
+        // every chunk stops at its own first error, so the one in the earliest chunk is the first in the source
+        var size = 0;
+        for (int i = 0; i < chunks; i++) {
+            if (errors[i] != null) throw errors[i];
+            size += results[i].length;
+        }
+        var merged = new Token[size][];
+        for (int i = 0, at = 0; i < chunks; at += results[i].length, i++) {
+            System.arraycopy(results[i], 0, merged, at, results[i].length);
+        }
+        return merged;
+    }
+
+    // where each chunk begins, which is always just after a newline, followed by the length of the text
+    private static int[] starts(CharSequence text) {
+        var starts = new int[16];
+        var count = 1;
+        for (int at = CHUNK; at < text.length(); at += CHUNK) {
+            while (at < text.length() && text.charAt(at - 1) != '\n') at++;
+            if (at >= text.length()) break;
+            if (count == starts.length) starts = Arrays.copyOf(starts, count * 2);
+            starts[count++] = at;
+        }
+        starts = Arrays.copyOf(starts, count + 1);
+        starts[count] = text.length();
+        return starts;
+    }
+
+    private static final class Each extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from, to;
+        // tasks are never serialized, and the lambdas passed in here couldn't be
+        private final transient IntConsumer leaf;
+
+        Each(int from, int to, IntConsumer leaf) {
+            this.from = from;
+            this.to = to;
+            this.leaf = leaf;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                leaf.accept(from);
+                return;
+            }
+            var mid = (from + to) >>> 1;
+            invokeAll(new Each(from, mid, leaf), new Each(mid, to, leaf));
+        }
+    }
+}
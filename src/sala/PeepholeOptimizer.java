@@ -0,0 +1,80 @@
+package sala;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+final class PeepholeOptimizer {
+    private final List<Op> ops;
+    private final boolean[] targeted;
+    private final Map<String, Integer> report;
+
+    private PeepholeOptimizer(List<Op> ops, Map<String, Integer> report) {
+        this.ops = ops;
+        this.report = report;
+        this.targeted = new boolean[ops.size() + 1];
+        for (Op op : ops) if (Opcodes.hasTarget(op.opcode)) targeted[op.operand] = true;
+    }
+
+    static List<Op> optimize(List<Op> ops, Map<String, Integer> labels, Map<String, Integer> report) {
+        return new PeepholeOptimizer(ops, report).run(labels);
+    }
+
+    private boolean matches(int i, int... opcodes) {
+        if (i + opcodes.length > ops.size()) return false;
+        for (int j = 0; j < opcodes.length; j++) {
+            if (ops.get(i + j).opcode != opcodes[j]) return false;
+            if (j > 0 && targeted[i + j]) return false;
+        }
+        return true;
+    }
+
+    private static int compareWithConstant(int jump) {
+        return switch (jump) {
+            case Opcodes.JEQ -> Opcodes.JEQK;
+            case Opcodes.JNE -> Opcodes.JNEK;
+            case Opcodes.JLT -> Opcodes.JLTK;
+            case Opcodes.JGT -> Opcodes.JGTK;
+            default -> -1;
+        };
+    }
+
+    private List<Op> run(Map<String, Integer> labels) {
+        var out = new ArrayList<Op>(ops.size());
+        var index = new int[ops.size() + 1];
+
+        for (int i = 0; i < ops.size(); ) {
+            index[i] = out.size();
+            var op = ops.get(i);
+
+            if (matches(i, Opcodes.PUSH_INT, Opcodes.ADD)) {
+                out.add(new Op(Opcodes.ADDK, op.operand, ops.get(i + 1).site));
+                fired("push k; add -> addk", i, 2, index, out);
+                i += 2;
+            } else if (matches(i, Opcodes.DUP, Opcodes.SV)) {
+                out.add(new Op(Opcodes.TEE, ops.get(i + 1).operand, ops.get(i + 1).site));
+                fired("dup; sv -> tee", i, 2, index, out);
+                i += 2;
+            } else if (matches(i, Opcodes.DUP, Opcodes.PUSH_INT) && i + 2 < ops.size() && !targeted[i + 2] && compareWithConstant(ops.get(i + 2).opcode) != -1) {
+                var jump = ops.get(i + 2);
+                var fused = compareWithConstant(jump.opcode);
+                out.add(new Op(fused, ops.get(i + 1).operand, jump.operand, jump.site));
+                fired("dup; push k; " + Opcodes.name(jump.opcode) + " -> " + Opcodes.name(fused), i, 3, index, out);
+                i += 3;
+            } else {
+                out.add(op);
+                i++;
+            }
+        }
+        index[ops.size()] = out.size();
+
+        for (Op op : out) if (Opcodes.hasTarget(op.opcode)) op.operand = index[op.operand];
+        labels.replaceAll((_, target) -> index[target]);
+        return out;
+    }
+
+    private void fired(String fusion, int start, int length, int[] index, List<Op> out) {
+        for (int j = 1; j < length; j++) index[start + j] = out.size() - 1;
+        report.merge(fusion, 1, Integer::sum);
+    }
+}
@@ -0,0 +1,208 @@
+package sala;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+public final class Profiler {
+    private Program program;
+    private long[] counts;
+    private long[] nanos;
+    private long[] backEdges;
+    private final TreeMap<Integer, String> blocks = new TreeMap<>();
+
+    // call stacks form a tree, and recursion deeper than MAX_DEPTH is folded into the deepest frame
+    private static final int MAX_DEPTH = 64;
+
+    private static final class Frame {
+        final String name;
+        final Frame parent;
+        final int depth;
+        final HashMap<String, Frame> children = new HashMap<>();
+        final long[] nanos;
+
+        Frame(String name, Frame parent, int size) {
+            this.name = name;
+            this.parent = parent;
+            this.depth = parent == null ? 0 : parent.depth + 1;
+            this.nanos = new long[size];
+        }
+
+        String path() {
+            return parent == null ? name : parent.path() + ";" + name;
+        }
+    }
+
+    private Frame root;
+    private Frame frame;
+    private int folded;
+
+    private int last = -1;
+    private long lastTime;
+    private long total;
+
+    // a copy of the program with a prof probe in front of every instruction, so the probes cost nothing when profiling is off
+    @NotNull Program instrument(@NotNull Program program) throws SalaException {
+        if (this.program != null) throw new IllegalStateException("a profiler can only profile one execution");
+        this.program = program;
+
+        var code = program.code;
+        counts = new long[code.length];
+        nanos = new long[code.length];
+        backEdges = new long[code.length];
+
+        var pcs = new int[code.length + 1];
+        var length = 0;
+        for (int pc = 0; pc < code.length; pc += Opcodes.width(code[pc])) {
+            pcs[pc] = length;
+            length += Opcodes.width(Opcodes.PROF) + Opcodes.width(code[pc]);
+        }
+        pcs[code.length] = length;
+
+        var instrumented = new int[length];
+        var sites = new Token[length];
+        for (int pc = 0; pc < code.length; pc += Opcodes.width(code[pc])) {
+            var at = pcs[pc];
+            instrumented[at] = Opcodes.PROF;
+            instrumented[at + 1] = pc;
+            sites[at] = program.sites[pc];
+
+            var width = Opcodes.width(code[pc]);
+            System.arraycopy(code, pc, instrumented, at + 2, width);
+            if (Opcodes.hasTarget(code[pc])) instrumented[at + 2 + width - 1] = pcs[code[pc + width - 1]];
+            sites[at + 2] = program.sites[pc];
+
+            if (code[pc] == Opcodes.CALL) blocks.putIfAbsent(code[pc + 1], program.sites[pc].getLiteral());
+        }
+        program.labels.forEach((label, pc) -> blocks.put(pc, ":" + label));
+
+        var labels = new HashMap<String, Integer>();
+        program.labels.forEach((label, pc) -> labels.put(label, pcs[pc]));
+
+        root = frame = new Frame("main", null, code.length);
+
+        return new Program(instrumented, program.constants, sites, labels, program.vars);
+    }
+
+    void tick(int pc) {
+        var now = System.nanoTime();
+        if (last != -1) {
+            if (Opcodes.isJump(program.code[last]) && pc <= last) backEdges[pc]++;
+            charge(now);
+        }
+        counts[pc]++;
+        last = pc;
+        lastTime = now;
+    }
+
+    // stops the clock when the execution returns or yields, so time spent descheduled isn't charged to anything
+    void stop() {
+        if (last == -1) return;
+        charge(System.nanoTime());
+        last = -1;
+    }
+
+    private void charge(long now) {
+        var elapsed = now - lastTime;
+        nanos[last] += elapsed;
+        frame.nanos[last] += elapsed;
+        total += elapsed;
+
+        var op = Opcodes.base(program.code[last]);
+        if (op == Opcodes.CALL) {
+            if (frame.depth == MAX_DEPTH) {
+                folded++;
+            } else {
+                var parent = frame;
+                frame = frame.children.computeIfAbsent(program.sites[last].getLiteral(), name -> new Frame(name, parent, program.code.length));
+            }
+        } else if (op == Opcodes.RET) {
+            if (folded > 0) {
+                folded--;
+            } else {
+                frame = frame.parent;
+            }
+        }
+    }
+
+    private String block(int pc) {
+        var block = blocks.floorEntry(pc);
+        return block == null ? "<start>" : block.getValue();
+    }
+
+    private void add(Map<String, long[]> rows, String name, int pc) {
+        var row = rows.computeIfAbsent(name, _ -> new long[2]);
+        row[0] += counts[pc];
+        row[1] += nanos[pc];
+    }
+
+    private record Row(String name, long count, long nanos) {}
+
+    private void section(PrintStream out, String title, Map<String, long[]> rows, int limit) {
+        var sorted = new ArrayList<Row>();
+        rows.forEach((name, row) -> sorted.add(new Row(name, row[0], row[1])));
+        sorted.sort((a, b) -> a.nanos != b.nanos ? Long.compare(b.nanos, a.nanos) : Long.compare(b.count, a.count));
+
+        out.printf("\n%s\n%14s %14s %7s\n", title, "count", "ns", "%");
+        for (var row : sorted.subList(0, Math.min(limit, sorted.size()))) {
+            out.printf("%14d %14d %6.2f%%  %s\n", row.count, row.nanos, total == 0 ? 0 : row.nanos * 100.0 / total, row.name);
+        }
+    }
+
+    public void report(@NotNull PrintStream out) {
+        var code = program.code;
+        var lines = new LinkedHashMap<String, long[]>();
+        var instructions = new LinkedHashMap<String, long[]>();
+        var blocks = new LinkedHashMap<String, long[]>();
+        var loops = new ArrayList<Row>();
+        long executed = 0;
+
+        for (int pc = 0; pc < code.length; pc += Opcodes.width(code[pc])) {
+            if (counts[pc] == 0) continue;
+            executed += counts[pc];
+            var site = program.sites[pc];
+            add(lines, "line " + (site.getLine() + 1), pc);
+            add(instructions, Opcodes.name(Opcodes.base(code[pc])), pc);
+            add(blocks, block(pc), pc);
+            if (backEdges[pc] != 0) loops.add(new Row(block(pc) + " (pc " + pc + ", line " + (site.getLine() + 1) + ")", backEdges[pc], 0));
+        }
+
+        out.printf("profile: %d instructions in %.3fms\n", executed, total / 1e6);
+        section(out, "by line", lines, 20);
+        section(out, "by instruction", instructions, Integer.MAX_VALUE);
+        section(out, "by label", blocks, Integer.MAX_VALUE);
+
+        if (!loops.isEmpty()) {
+            loops.sort((a, b) -> Long.compare(b.count, a.count));
+            out.printf("\nhot loops\n%14s\n", "back jumps");
+            for (var loop : loops) out.printf("%14d  %s\n", loop.count, loop.name);
+        }
+    }
+
+    // one "frame;frame;label;instruction nanos" line per stack, the input format of flamegraph.pl and speedscope
+    public void writeCollapsed(@NotNull Path path) throws IOException {
+        var collapsed = new TreeMap<String, Long>();
+        collapse(root, collapsed);
+
+        var lines = new ArrayList<String>(collapsed.size());
+        collapsed.forEach((stack, time) -> lines.add(stack + " " + time));
+        Files.write(path, lines);
+    }
+
+    private void collapse(Frame frame, Map<String, Long> collapsed) {
+        var code = program.code;
+        var path = frame.path();
+        for (int pc = 0; pc < code.length; pc += Opcodes.width(code[pc])) {
+            if (frame.nanos[pc] != 0) collapsed.merge(path + ";" + block(pc) + ";" + Opcodes.name(Opcodes.base(code[pc])), frame.nanos[pc], Long::sum);
+        }
+        for (var child : frame.children.values()) collapse(child, collapsed);
+    }
+}
@@ -0,0 +1,78 @@
+package sala;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+
+public final class Program {
+    final int[] code;
+    final Object[] constants;
+    final Token[] sites;
+    final boolean verified;
+    final int maxStack;
+    final int vars;
+    final Map<String, Integer> labels;
+
+    Program(int @NotNull [] code, @NotNull Object[] constants, @NotNull Token[] sites, @NotNull Map<String, Integer> labels, int vars) throws SalaException {
+        this.code = code;
+        this.constants = constants;
+        // a program outlives the source it was lexed from, so its sites only keep their own text
+        for (int pc = 0; pc < sites.length; pc++) if (sites[pc] != null) sites[pc] = sites[pc].detach();
+        this.sites = sites;
+        this.labels = Map.copyOf(labels);
+        this.vars = vars;
+
+        var verifier = Verifier.verify(code, constants, sites, vars);
+        this.verified = verifier.verified;
+        this.maxStack = verifier.maxDepth;
+
+        // sites the verifier proved to only ever see ints start out quickened
+        for (int pc = 0; pc < code.length; pc += Opcodes.width(code[pc])) {
+            var state = verifier.states[pc];
+            if (state == null || state.length < 2) continue;
+            switch (code[pc]) {
+                case Opcodes.ADD, Opcodes.SUB, Opcodes.MUL, Opcodes.DIV, Opcodes.MOD, Opcodes.JLT, Opcodes.JGT -> {
+                    if (state[state.length - 1] == Verifier.INT && state[state.length - 2] == Verifier.INT) code[pc] = Opcodes.quickenedInt(code[pc]);
+                }
+                default -> {
+                }
+            }
+        }
+    }
+
+    public int size() {
+        return code.length;
+    }
+
+    public boolean isVerified() {
+        return verified;
+    }
+
+    public int maxStack() {
+        return maxStack;
+    }
+
+    public int variables() {
+        return vars;
+    }
+
+    public @NotNull Map<String, Integer> labels() {
+        return labels;
+    }
+
+    public @NotNull String disassemble() {
+        var str = new StringBuilder();
+        for (int pc = 0; pc < code.length; pc += Opcodes.width(code[pc])) {
+            var op = code[pc];
+            str.append(String.format("%4d  %s", pc, Opcodes.name(op)));
+            if (op == Opcodes.PUSH) {
+                var c = constants[code[pc + 1]];
+                str.append(' ').append(c instanceof String ? "\"" + c + "\"" : c);
+            } else {
+                for (int i = 1; i < Opcodes.width(op); i++) str.append(' ').append(code[pc + i]);
+            }
+            str.append('\n');
+        }
+        return str.toString();
+    }
+}
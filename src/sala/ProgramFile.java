@@ -0,0 +1,191 @@
+package sala;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+public final class ProgramFile {
+    private static final int MAGIC = 0x53414C43;
+    static final int VERSION = 4;
+
+    private static final byte STRING = 0;
+    private static final byte INT = 1;
+    private static final byte FLOAT = 2;
+
+    private ProgramFile() {
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        var bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    // counts and lengths come from the file, so nothing is allocated for more than what's actually read
+    private static int readCount(DataInputStream in) throws IOException {
+        var count = in.readInt();
+        if (count < 0) throw new IOException("corrupt compiled program");
+        return count;
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        var length = readCount(in);
+        var bytes = in.readNBytes(length);
+        if (bytes.length != length) throw new IOException("truncated compiled program");
+        return new String(bytes, StandardCharsets.UTF_8).intern();
+    }
+
+    private static int[] readInts(DataInputStream in, int count) throws IOException {
+        var ints = new int[Math.min(count, 1 << 12)];
+        for (int i = 0; i < count; i++) {
+            if (i == ints.length) ints = Arrays.copyOf(ints, (int) Math.min(count, ints.length * 2L));
+            ints[i] = in.readInt();
+        }
+        return ints;
+    }
+
+    public static void write(@NotNull Program program, @NotNull OutputStream stream) throws IOException {
+        var out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeInt(program.vars);
+
+        // instruction pack opcodes depend on which packs are installed, so they are stored by name
+        var code = program.code;
+        var extensions = new LinkedHashMap<Integer, Integer>();
+        for (int pc = 0; pc < code.length; pc += Opcodes.width(code[pc])) {
+            if (code[pc] >= Opcodes.FIRST_EXTENSION) extensions.putIfAbsent(code[pc], Opcodes.FIRST_EXTENSION + extensions.size());
+        }
+        out.writeInt(extensions.size());
+        for (int op : extensions.keySet()) writeString(out, Opcodes.name(op));
+
+        // quickening is redone when the program is loaded, so only the base opcodes are stored
+        out.writeInt(code.length);
+        for (int pc = 0; pc < code.length; pc += Opcodes.width(code[pc])) {
+            out.writeInt(code[pc] >= Opcodes.FIRST_EXTENSION ? extensions.get(code[pc]) : Opcodes.base(code[pc]));
+            for (int i = 1; i < Opcodes.width(code[pc]); i++) out.writeInt(code[pc + i]);
+        }
+
+        out.writeInt(program.constants.length);
+        for (Object c : program.constants) {
+            switch (c) {
+                case String s -> {
+                    out.writeByte(STRING);
+                    writeString(out, s);
+                }
+                case Integer i -> {
+                    out.writeByte(INT);
+                    out.writeInt(i);
+                }
+                case Float f -> {
+                    out.writeByte(FLOAT);
+                    out.writeFloat(f);
+                }
+                default -> throw new IOException("unsupported constant '" + c + "'");
+            }
+        }
+
+        var sites = 0;
+        for (Token t : program.sites) if (t != null) sites++;
+        out.writeInt(sites);
+        for (int pc = 0; pc < program.sites.length; pc++) {
+            var t = program.sites[pc];
+            if (t == null) continue;
+            out.writeInt(pc);
+            out.writeByte(t.getType().ordinal());
+            writeString(out, t.getLiteral());
+            out.writeInt(t.getStart());
+            out.writeInt(t.getLine());
+        }
+
+        out.writeInt(program.labels.size());
+        for (var label : program.labels.entrySet()) {
+            writeString(out, label.getKey());
+            out.writeInt(label.getValue());
+        }
+
+        out.flush();
+    }
+
+    public static @NotNull Program read(@NotNull InputStream stream) throws IOException, SalaException {
+        var in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC) throw new IOException("not a compiled sala program");
+        var version = in.readUnsignedShort();
+        if (version != VERSION) throw new IOException("unsupported compiled program version " + version);
+        var vars = in.readInt();
+        if (vars < 0) throw new IOException("corrupt compiled program");
+
+        // every extension a program uses has to be installed, so a table longer than that must repeat a name
+        var extensionCount = readCount(in);
+        var extensions = new int[Math.min(extensionCount, StandardInstructions.EXTENSIONS.length)];
+        for (int i = 0; i < extensionCount; i++) {
+            var name = readString(in);
+            var opcode = StandardInstructions.opcode(name);
+            if (opcode < Opcodes.FIRST_EXTENSION) throw new IOException("instruction '" + name + "' is not installed");
+            if (i == extensions.length) throw new IOException("corrupt compiled program");
+            extensions[i] = opcode;
+        }
+
+        var code = readInts(in, readCount(in));
+
+        var constantCount = readCount(in);
+        var constants = new Object[Math.min(constantCount, 1 << 12)];
+        for (int i = 0; i < constantCount; i++) {
+            if (i == constants.length) constants = Arrays.copyOf(constants, (int) Math.min(constantCount, constants.length * 2L));
+            constants[i] = switch (in.readByte()) {
+                case STRING -> readString(in);
+                case INT -> in.readInt();
+                case FLOAT -> in.readFloat();
+                default -> throw new IOException("corrupt constant pool");
+            };
+        }
+
+        var sites = new Token[code.length];
+        var types = TokenTypes.values();
+        for (int i = readCount(in); i > 0; i--) {
+            var pc = in.readInt();
+            var type = in.readUnsignedByte();
+            if (pc < 0 || pc >= code.length || type >= types.length) throw new IOException("corrupt compiled program");
+            sites[pc] = new Token(types[type], readString(in), in.readInt(), in.readInt());
+        }
+
+        var labels = new HashMap<String, Integer>();
+        for (int i = readCount(in); i > 0; i--) labels.put(readString(in), in.readInt());
+
+        // jumps and labels may only point at the start of an instruction, or just past the last one
+        var starts = new boolean[code.length + 1];
+        starts[code.length] = true;
+        for (int pc = 0; pc < code.length; pc += Opcodes.width(code[pc])) {
+            starts[pc] = true;
+            if (code[pc] >= Opcodes.FIRST_EXTENSION) {
+                if (code[pc] - Opcodes.FIRST_EXTENSION >= extensions.length) throw new IOException("corrupt compiled program");
+                code[pc] = extensions[code[pc] - Opcodes.FIRST_EXTENSION];
+            }
+            var op = code[pc];
+            if (op < 0 || (op >= Opcodes.NAMES.length && !StandardInstructions.isExtension(op)) || pc + Opcodes.width(op) > code.length || sites[pc] == null) throw new IOException("corrupt compiled program");
+            if (op == Opcodes.PUSH && (code[pc + 1] < 0 || code[pc + 1] >= constants.length)) throw new IOException("corrupt compiled program");
+            if ((op == Opcodes.GV || op == Opcodes.SV || op == Opcodes.TEE) && (code[pc + 1] < 0 || code[pc + 1] >= vars)) throw new IOException("corrupt compiled program");
+            var target = code[pc + Opcodes.width(op) - 1];
+            if (Opcodes.hasTarget(op) && (target < 0 || target > code.length)) throw new IOException("corrupt compiled program");
+        }
+        for (int pc = 0; pc < code.length; pc += Opcodes.width(code[pc])) {
+            if (Opcodes.hasTarget(code[pc]) && !starts[code[pc + Opcodes.width(code[pc]) - 1]]) throw new IOException("corrupt compiled program");
+        }
+        for (int target : labels.values()) {
+            if (target < 0 || target > code.length || !starts[target]) throw new IOException("corrupt compiled program");
+        }
+
+        // the verifier rejects this too, but as a SalaException, and a ret with no call to return to is corruption
+        if (Verifier.strayReturn(code) != -1) throw new IOException("corrupt compiled program");
+
+        return new Program(code, constants, sites, labels, vars);
+    }
+}
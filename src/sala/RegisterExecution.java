@@ -0,0 +1,379 @@
+package sala;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+import static sala.RegisterProgram.WIDTH;
+
+// runs a RegisterProgram; like Execution it can be run a quantum of instructions at a time, counting register
+// instructions instead of stack ones
+public final class RegisterExecution {
+    private static final int MAX_FRAMES = 1 << 16;
+    // the tag of a stack slot nothing has been written to yet, which is how peak() finds the deepest the stack got
+    private static final byte UNWRITTEN = -1;
+
+    private final RegisterProgram program;
+    private final int[] values;
+    private final Object[] refs;
+    private final byte[] tags;
+    private final SalaOutput out;
+    private final SalaInput in;
+    private int pc;
+    private int[] frames = new int[16];
+    private int fp;
+    private long executed;
+    private long fuel = Long.MAX_VALUE;
+
+    public RegisterExecution(@NotNull RegisterProgram program, @NotNull SalaOutput out, @NotNull SalaInput in) {
+        this.program = program;
+        this.values = new int[program.registers];
+        this.refs = new Object[program.registers];
+        // variables start out as the int 0, like SalaVariables; the translator never reads a stack slot before writing it
+        this.tags = new byte[program.registers];
+        Arrays.fill(tags, 0, program.firstVariable, UNWRITTEN);
+        this.out = out;
+        this.in = in;
+        for (int i = 0; i < program.constants.length; i++) set(program.firstConstant + i, program.constants[i]);
+    }
+
+    public @NotNull RegisterProgram program() {
+        return program;
+    }
+
+    public int pc() {
+        return pc / WIDTH;
+    }
+
+    public boolean finished() {
+        return pc >= program.code.length;
+    }
+
+    public long executed() {
+        return executed;
+    }
+
+    // pushes of constants and variables are folded into the instructions that use them, so this is how deep the
+    // stack of values that actually had to be stored got
+    public int peak() {
+        var depth = program.firstVariable;
+        while (depth > 0 && tags[depth - 1] == UNWRITTEN) depth--;
+        return depth;
+    }
+
+    public long fuel() {
+        return fuel;
+    }
+
+    public RegisterExecution fuel(long fuel) {
+        this.fuel = fuel;
+        return this;
+    }
+
+    // the value of a variable, for tools and tests that look at a finished execution
+    public Object variable(int slot) {
+        return SalaString.flatten(get(program.firstVariable + slot));
+    }
+
+    private Object get(int r) {
+        return switch (tags[r]) {
+            case SalaStack.INT -> values[r];
+            case SalaStack.FLOAT -> Float.intBitsToFloat(values[r]);
+            default -> refs[r];
+        };
+    }
+
+    // ints and floats clear the reference they replace, so a register doesn't keep an old string alive
+    private void set(int r, Object value) {
+        switch (value) {
+            case Integer i -> {
+                values[r] = i;
+                refs[r] = null;
+                tags[r] = SalaStack.INT;
+            }
+            case Float f -> {
+                values[r] = Float.floatToRawIntBits(f);
+                refs[r] = null;
+                tags[r] = SalaStack.FLOAT;
+            }
+            default -> {
+                refs[r] = value;
+                tags[r] = SalaStack.REF;
+            }
+        }
+    }
+
+    // everything but int on int, which run() handles inline
+    private void arithmetic(int op, int d, Object x, Object y, Token site) throws SalaException {
+        set(d, switch (op) {
+            case RegisterProgram.ADD -> StandardInstructions.add(site, x, y);
+            case RegisterProgram.SUB -> StandardInstructions.sub(site, x, y);
+            case RegisterProgram.MUL -> StandardInstructions.mul(site, x, y);
+            case RegisterProgram.DIV -> StandardInstructions.div(site, x, y);
+            default -> StandardInstructions.mod(site, x, y);
+        });
+    }
+
+    private static boolean compare(int op, Object x, Object y, Token site) throws SalaException {
+        return switch (op) {
+            case RegisterProgram.JEQ -> StandardInstructions.equal(x, y);
+            case RegisterProgram.JNE -> !StandardInstructions.equal(x, y);
+            case RegisterProgram.JLT -> StandardInstructions.lessThan(site, x, y);
+            default -> StandardInstructions.greaterThan(site, x, y);
+        };
+    }
+
+    public void run() throws SalaException {
+        run(Long.MAX_VALUE);
+    }
+
+    public boolean run(long quantum) throws SalaException {
+        var budget = Math.min(quantum, fuel - executed);
+        var granted = budget;
+        var code = program.code;
+        var sites = program.sites;
+        var values = this.values;
+        var refs = this.refs;
+        var tags = this.tags;
+
+        var pc = this.pc;
+        var frames = this.frames;
+        var fp = this.fp;
+        try {
+            while (pc < code.length && budget > 0) {
+                budget--;
+                switch (code[pc]) {
+                    case RegisterProgram.MOV -> {
+                        var d = code[pc + 1];
+                        var s = code[pc + 2];
+                        values[d] = values[s];
+                        refs[d] = refs[s];
+                        tags[d] = tags[s];
+                        pc += WIDTH;
+                    }
+                    case RegisterProgram.ADD -> {
+                        var a = code[pc + 2];
+                        var b = code[pc + 3];
+                        if (tags[a] == SalaStack.INT && tags[b] == SalaStack.INT) {
+                            values[code[pc + 1]] = values[a] + values[b];
+                            refs[code[pc + 1]] = null;
+                            tags[code[pc + 1]] = SalaStack.INT;
+                        } else {
+                            arithmetic(RegisterProgram.ADD, code[pc + 1], get(a), get(b), sites[pc / WIDTH]);
+                        }
+                        pc += WIDTH;
+                    }
+                    case RegisterProgram.SUB -> {
+                        var a = code[pc + 2];
+                        var b = code[pc + 3];
+                        if (tags[a] == SalaStack.INT && tags[b] == SalaStack.INT) {
+                            values[code[pc + 1]] = values[a] - values[b];
+                            refs[code[pc + 1]] = null;
+                            tags[code[pc + 1]] = SalaStack.INT;
+                        } else {
+                            arithmetic(RegisterProgram.SUB, code[pc + 1], get(a), get(b), sites[pc / WIDTH]);
+                        }
+                        pc += WIDTH;
+                    }
+                    case RegisterProgram.MUL -> {
+                        var a = code[pc + 2];
+                        var b = code[pc + 3];
+                        if (tags[a] == SalaStack.INT && tags[b] == SalaStack.INT) {
+                            values[code[pc + 1]] = values[a] * values[b];
+                            refs[code[pc + 1]] = null;
+                            tags[code[pc + 1]] = SalaStack.INT;
+                        } else {
+                            arithmetic(RegisterProgram.MUL, code[pc + 1], get(a), get(b), sites[pc / WIDTH]);
+                        }
+                        pc += WIDTH;
+                    }
+                    case RegisterProgram.DIV -> {
+                        var a = code[pc + 2];
+                        var b = code[pc + 3];
+                        if (tags[a] == SalaStack.INT && tags[b] == SalaStack.INT) {
+                            values[code[pc + 1]] = values[a] / values[b];
+                            refs[code[pc + 1]] = null;
+                            tags[code[pc + 1]] = SalaStack.INT;
+                        } else {
+                            arithmetic(RegisterProgram.DIV, code[pc + 1], get(a), get(b), sites[pc / WIDTH]);
+                        }
+                        pc += WIDTH;
+                    }
+                    case RegisterProgram.MOD -> {
+                        var a = code[pc + 2];
+                        var b = code[pc + 3];
+                        if (tags[a] == SalaStack.INT && tags[b] == SalaStack.INT) {
+                            values[code[pc + 1]] = values[a] % values[b];
+                            refs[code[pc + 1]] = null;
+                            tags[code[pc + 1]] = SalaStack.INT;
+                        } else {
+                            arithmetic(RegisterProgram.MOD, code[pc + 1], get(a), get(b), sites[pc / WIDTH]);
+                        }
+                        pc += WIDTH;
+                    }
+                    case RegisterProgram.ADDI -> {
+                        var a = code[pc + 2];
+                        if (tags[a] == SalaStack.INT) {
+                            values[code[pc + 1]] = values[a] + code[pc + 3];
+                            refs[code[pc + 1]] = null;
+                            tags[code[pc + 1]] = SalaStack.INT;
+                        } else {
+                            arithmetic(RegisterProgram.ADD, code[pc + 1], get(a), code[pc + 3], sites[pc / WIDTH]);
+                        }
+                        pc += WIDTH;
+                    }
+                    case RegisterProgram.SUBI -> {
+                        var a = code[pc + 2];
+                        if (tags[a] == SalaStack.INT) {
+                            values[code[pc + 1]] = values[a] - code[pc + 3];
+                            refs[code[pc + 1]] = null;
+                            tags[code[pc + 1]] = SalaStack.INT;
+                        } else {
+                            arithmetic(RegisterProgram.SUB, code[pc + 1], get(a), code[pc + 3], sites[pc / WIDTH]);
+                        }
+                        pc += WIDTH;
+                    }
+                    case RegisterProgram.J -> pc = code[pc + 3];
+                    case RegisterProgram.JEQ -> {
+                        var a = code[pc + 1];
+                        var b = code[pc + 2];
+                        boolean jump;
+                        if (tags[a] == SalaStack.INT && tags[b] == SalaStack.INT) {
+                            jump = values[a] == values[b];
+                        } else {
+                            jump = compare(RegisterProgram.JEQ, get(a), get(b), sites[pc / WIDTH]);
+                        }
+                        pc = jump ? code[pc + 3] : pc + WIDTH;
+                    }
+                    case RegisterProgram.JNE -> {
+                        var a = code[pc + 1];
+                        var b = code[pc + 2];
+                        boolean jump;
+                        if (tags[a] == SalaStack.INT && tags[b] == SalaStack.INT) {
+                            jump = values[a] != values[b];
+                        } else {
+                            jump = compare(RegisterProgram.JNE, get(a), get(b), sites[pc / WIDTH]);
+                        }
+                        pc = jump ? code[pc + 3] : pc + WIDTH;
+                    }
+                    case RegisterProgram.JLT -> {
+                        var a = code[pc + 1];
+                        var b = code[pc + 2];
+                        boolean jump;
+                        if (tags[a] == SalaStack.INT && tags[b] == SalaStack.INT) {
+                            jump = values[a] < values[b];
+                        } else {
+                            jump = compare(RegisterProgram.JLT, get(a), get(b), sites[pc / WIDTH]);
+                        }
+                        pc = jump ? code[pc + 3] : pc + WIDTH;
+                    }
+                    case RegisterProgram.JGT -> {
+                        var a = code[pc + 1];
+                        var b = code[pc + 2];
+                        boolean jump;
+                        if (tags[a] == SalaStack.INT && tags[b] == SalaStack.INT) {
+                            jump = values[a] > values[b];
+                        } else {
+                            jump = compare(RegisterProgram.JGT, get(a), get(b), sites[pc / WIDTH]);
+                        }
+                        pc = jump ? code[pc + 3] : pc + WIDTH;
+                    }
+                    case RegisterProgram.JEQI -> {
+                        var a = code[pc + 1];
+                        boolean jump;
+                        if (tags[a] == SalaStack.INT) {
+                            jump = values[a] == code[pc + 2];
+                        } else {
+                            jump = compare(RegisterProgram.JEQ, get(a), code[pc + 2], sites[pc / WIDTH]);
+                        }
+                        pc = jump ? code[pc + 3] : pc + WIDTH;
+                    }
+                    case RegisterProgram.JNEI -> {
+                        var a = code[pc + 1];
+                        boolean jump;
+                        if (tags[a] == SalaStack.INT) {
+                            jump = values[a] != code[pc + 2];
+                        } else {
+                            jump = compare(RegisterProgram.JNE, get(a), code[pc + 2], sites[pc / WIDTH]);
+                        }
+                        pc = jump ? code[pc + 3] : pc + WIDTH;
+                    }
+                    case RegisterProgram.JLTI -> {
+                        var a = code[pc + 1];
+                        boolean jump;
+                        if (tags[a] == SalaStack.INT) {
+                            jump = values[a] < code[pc + 2];
+                        } else {
+                            jump = compare(RegisterProgram.JLT, get(a), code[pc + 2], sites[pc / WIDTH]);
+                        }
+                        pc = jump ? code[pc + 3] : pc + WIDTH;
+                    }
+                    case RegisterProgram.JGTI -> {
+                        var a = code[pc + 1];
+                        boolean jump;
+                        if (tags[a] == SalaStack.INT) {
+                            jump = values[a] > code[pc + 2];
+                        } else {
+                            jump = compare(RegisterProgram.JGT, get(a), code[pc + 2], sites[pc / WIDTH]);
+                        }
+                        pc = jump ? code[pc + 3] : pc + WIDTH;
+                    }
+                    case RegisterProgram.PRINT -> {
+                        var r = code[pc + 1];
+                        if (tags[r] == SalaStack.INT) {
+                            out.printInt(values[r]);
+                        } else {
+                            out.print(get(r));
+                        }
+                        pc += WIDTH;
+                    }
+                    case RegisterProgram.READLN -> {
+                        if (out instanceof BufferedSalaOutput b) b.beforeInput();
+                        var line = in.get();
+                        var r = code[pc + 1];
+                        set(r, line == null ? "" : line);
+                        set(r + 1, line == null ? 0 : 1);
+                        pc += WIDTH;
+                    }
+                    case RegisterProgram.READINT -> {
+                        if (out instanceof BufferedSalaOutput b) b.beforeInput();
+                        long value;
+                        try {
+                            value = in.getInt();
+                        } catch (NumberFormatException e) {
+                            throw new SalaException(sites[pc / WIDTH].err("input is not an integer"));
+                        }
+                        var r = code[pc + 1];
+                        set(r, value == SalaInput.EOF ? 0 : (int) value);
+                        set(r + 1, value == SalaInput.EOF ? 0 : 1);
+                        pc += WIDTH;
+                    }
+                    case RegisterProgram.READALL -> {
+                        if (out instanceof BufferedSalaOutput b) b.beforeInput();
+                        set(code[pc + 1], in.getAll());
+                        pc += WIDTH;
+                    }
+                    case RegisterProgram.CALL -> {
+                        if (fp == frames.length) {
+                            if (fp == MAX_FRAMES) throw new SalaException(sites[pc / WIDTH].err("call stack overflow"));
+                            frames = this.frames = Arrays.copyOf(frames, fp * 2);
+                        }
+                        frames[fp++] = pc + WIDTH;
+                        pc = code[pc + 3];
+                    }
+                    case RegisterProgram.RET -> pc = frames[--fp];
+                    case RegisterProgram.HALT -> pc = code.length;
+                    default -> throw new SalaException(sites[pc / WIDTH].err("invalid register opcode %d", code[pc]));
+                }
+            }
+        } finally {
+            this.pc = pc;
+            this.fp = fp;
+            this.executed += granted - budget;
+        }
+
+        if (pc >= code.length) return true;
+        if (executed >= fuel) throw new SalaException(sites[pc / WIDTH].err("out of fuel after %d instructions", executed));
+        return false;
+    }
+}
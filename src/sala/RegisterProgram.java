@@ -0,0 +1,331 @@
+package sala;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+// a Program translated from stack code into three-address code over a flat register file; registers
+// [0, maxStack) hold the stack slots, the variables follow them and the constants follow those
+public final class RegisterProgram {
+    static final int MOV = 0;
+    static final int ADD = 1;
+    static final int SUB = 2;
+    static final int MUL = 3;
+    static final int DIV = 4;
+    static final int MOD = 5;
+    static final int J = 6;
+    static final int JEQ = 7;
+    static final int JNE = 8;
+    static final int JLT = 9;
+    static final int JGT = 10;
+    static final int PRINT = 11;
+    static final int READLN = 12;
+    static final int READINT = 13;
+    static final int READALL = 14;
+    static final int CALL = 15;
+    static final int RET = 16;
+    static final int HALT = 17;
+    // the forms with an int constant as their last operand keep it in the instruction instead of a register
+    static final int ADDI = 18;
+    static final int SUBI = 19;
+    static final int JEQI = 20;
+    static final int JNEI = 21;
+    static final int JLTI = 22;
+    static final int JGTI = 23;
+
+    private static final String[] NAMES = {
+            "mov", "add", "sub", "mul", "div", "mod", "j", "jeq", "jne", "jlt", "jgt",
+            "print", "readln", "readint", "readall", "call", "ret", "halt",
+            "addi", "subi", "jeqi", "jnei", "jlti", "jgti",
+    };
+
+    // every instruction is op, a, b, c; jumps keep the offset of their target in c
+    static final int WIDTH = 4;
+
+    final int[] code;
+    final Token[] sites;
+    final Object[] constants;
+    final int registers;
+    final int firstVariable;
+    final int firstConstant;
+
+    private RegisterProgram(int[] code, Token[] sites, Object[] constants, int maxStack, int vars) {
+        this.code = code;
+        this.sites = sites;
+        this.constants = constants;
+        this.firstVariable = maxStack;
+        this.firstConstant = maxStack + vars;
+        this.registers = firstConstant + constants.length;
+    }
+
+    public int size() {
+        return code.length / WIDTH;
+    }
+
+    public int registers() {
+        return registers;
+    }
+
+    // null when the program can't be translated: its stack depth depends on the path taken, or it uses native
+    // instructions, which work on a stack
+    public static @Nullable RegisterProgram translate(@NotNull Program program) throws SalaException {
+        if (!program.verified) return null;
+        for (int pc = 0; pc < program.code.length; pc += Opcodes.width(program.code[pc])) {
+            if (program.code[pc] >= Opcodes.FIRST_EXTENSION || program.code[pc] == Opcodes.PROF) return null;
+        }
+        return new Translator(program).translate();
+    }
+
+    private static final class Translator {
+        private final Program program;
+        private final byte[][] states;
+        private final int firstVariable;
+        private final int firstConstant;
+        private final ArrayList<Object> constants = new ArrayList<>();
+        private final HashMap<Object, Integer> constantIndex = new HashMap<>();
+
+        private int[] code = new int[64];
+        private Token[] sites = new Token[16];
+        private int length;
+        // the pcs that jumps and calls point to, by the index of the instruction that holds them
+        private final HashMap<Integer, Integer> targets = new HashMap<>();
+
+        // the register each stack slot's value is in, which is the slot's own register unless pushing it was deferred
+        private final int[] slots;
+        private int depth;
+        // where the code of the current block begins, which nothing before it may be merged into
+        private int start;
+
+        Translator(Program program) throws SalaException {
+            this.program = program;
+            this.states = Verifier.verify(program.code, program.constants, program.sites, program.vars).states;
+            this.firstVariable = program.maxStack;
+            this.firstConstant = program.maxStack + program.vars;
+            this.slots = new int[Math.max(program.maxStack, 1)];
+        }
+
+        RegisterProgram translate() {
+            var code = program.code;
+            var entries = new int[code.length + 1];
+            Arrays.fill(entries, -1);
+
+            for (var block : ControlFlowGraph.of(program).blocks()) {
+                if (!block.isReachable() || states[block.start()] == null) continue;
+                entries[block.start()] = length;
+                enter(states[block.start()].length);
+
+                var pc = block.start();
+                while (pc < block.end()) {
+                    var next = pc + Opcodes.width(code[pc]);
+                    if (!instruction(pc)) break;
+                    if (code[pc] == Opcodes.CALL) {
+                        // the body leaves the stack as deep as its ret says, and nothing after the call runs when it never returns
+                        if (states[next] == null) break;
+                        enter(states[next].length);
+                    }
+                    pc = next;
+                }
+                // jumps already flushed, so this only writes anything when the block falls through
+                if (pc == block.end()) flush(depth);
+            }
+            entries[code.length] = length;
+
+            for (var target : targets.entrySet()) {
+                var entry = entries[target.getValue()];
+                this.code[target.getKey() * WIDTH + 3] = (entry == -1 ? length : entry) * WIDTH;
+            }
+            return new RegisterProgram(Arrays.copyOf(this.code, length * WIDTH), Arrays.copyOf(sites, length), constants.toArray(), firstVariable, firstConstant - firstVariable);
+        }
+
+        private static boolean isArithmetic(int op) {
+            return op >= ADD && op <= MOD || op == ADDI || op == SUBI;
+        }
+
+        private void enter(int depth) {
+            this.depth = depth;
+            this.start = length;
+            for (int i = 0; i < depth; i++) slots[i] = i;
+        }
+
+        // writes every deferred slot below depth into its own register, so the code a jump lands on finds the stack
+        // where it expects it; a slot only ever refers to lower slots' registers, so the order doesn't matter
+        private void flush(int depth) {
+            for (int i = 0; i < depth; i++) {
+                if (slots[i] != i) {
+                    emit(MOV, i, slots[i], 0, null);
+                    slots[i] = i;
+                }
+            }
+        }
+
+        // returns false when the rest of the block can't run
+        private boolean instruction(int pc) {
+            var code = program.code;
+            var site = program.sites[pc];
+            var op = Opcodes.base(code[pc]);
+            switch (op) {
+                case Opcodes.PUSH -> slots[depth++] = constant(program.constants[code[pc + 1]]);
+                case Opcodes.PUSH_INT -> slots[depth++] = constant(code[pc + 1]);
+                case Opcodes.GV -> slots[depth++] = firstVariable + code[pc + 1];
+                case Opcodes.DUP -> {
+                    slots[depth] = slots[depth - 1];
+                    depth++;
+                }
+                case Opcodes.CLEAR -> depth = 0;
+                case Opcodes.SV, Opcodes.TEE -> {
+                    var variable = firstVariable + code[pc + 1];
+                    var value = slots[depth - 1];
+                    // slots still deferred to the variable need its old value
+                    var spilled = false;
+                    for (int i = 0; i < depth - 1; i++) {
+                        if (slots[i] == variable) {
+                            spilled = true;
+                            emit(MOV, i, variable, 0, site);
+                            slots[i] = i;
+                        }
+                    }
+                    var last = (length - 1) * WIDTH;
+                    if (value == depth - 1 && length > start && isArithmetic(this.code[last]) && this.code[last + 1] == value && !spilled) {
+                        // the value was just computed into the slot's register, so it's computed into the variable instead
+                        this.code[last + 1] = variable;
+                    } else if (value != variable) {
+                        emit(MOV, variable, value, 0, site);
+                    }
+                    if (op == Opcodes.SV) {
+                        depth--;
+                    } else {
+                        slots[depth - 1] = variable;
+                    }
+                }
+                case Opcodes.ADD, Opcodes.SUB, Opcodes.MUL, Opcodes.DIV, Opcodes.MOD -> {
+                    var b = slots[depth - 1];
+                    if ((op == Opcodes.ADD || op == Opcodes.SUB) && isInt(b)) {
+                        emit(op == Opcodes.ADD ? ADDI : SUBI, depth - 2, slots[depth - 2], intConstant(b), site);
+                    } else {
+                        emit(op - Opcodes.ADD + ADD, depth - 2, slots[depth - 2], b, site);
+                    }
+                    slots[depth - 2] = depth - 2;
+                    depth--;
+                }
+                case Opcodes.ADDK -> {
+                    emit(ADDI, depth - 1, slots[depth - 1], code[pc + 1], site);
+                    slots[depth - 1] = depth - 1;
+                }
+                case Opcodes.PRINT -> emit(PRINT, slots[--depth], 0, 0, site);
+                case Opcodes.READLN, Opcodes.READINT -> {
+                    emit(op == Opcodes.READLN ? READLN : READINT, depth, 0, 0, site);
+                    slots[depth] = depth;
+                    slots[depth + 1] = depth + 1;
+                    depth += 2;
+                }
+                case Opcodes.READALL -> {
+                    emit(READALL, depth, 0, 0, site);
+                    slots[depth] = depth;
+                    depth++;
+                }
+                case Opcodes.J -> {
+                    depth -= 2;
+                    flush(depth);
+                    jump(J, 0, 0, code[pc + 1], site);
+                }
+                case Opcodes.JEQ, Opcodes.JNE, Opcodes.JLT, Opcodes.JGT -> {
+                    var a = slots[depth - 2];
+                    var b = slots[depth - 1];
+                    depth -= 2;
+                    flush(depth);
+                    if (isInt(b)) {
+                        jump(op - Opcodes.JEQ + JEQI, a, intConstant(b), code[pc + 1], site);
+                    } else {
+                        jump(op - Opcodes.JEQ + JEQ, a, b, code[pc + 1], site);
+                    }
+                }
+                case Opcodes.JEQK, Opcodes.JNEK, Opcodes.JLTK, Opcodes.JGTK -> {
+                    // the k forms compare the top of the stack without popping it
+                    var a = slots[depth - 1];
+                    flush(depth);
+                    jump(op - Opcodes.JEQK + JEQI, a, code[pc + 1], code[pc + 2], site);
+                }
+                case Opcodes.CALL -> {
+                    flush(depth);
+                    jump(CALL, 0, 0, code[pc + 1], site);
+                }
+                case Opcodes.RET -> {
+                    flush(depth);
+                    emit(RET, 0, 0, 0, site);
+                    return false;
+                }
+                case Opcodes.HALT -> {
+                    emit(HALT, 0, 0, 0, site);
+                    return false;
+                }
+                default -> throw new IllegalStateException("unexpected opcode " + Opcodes.name(op));
+            }
+            return true;
+        }
+
+        private boolean isInt(int register) {
+            return register >= firstConstant && constants.get(register - firstConstant) instanceof Integer;
+        }
+
+        private int intConstant(int register) {
+            return (Integer) constants.get(register - firstConstant);
+        }
+
+        private int constant(Object value) {
+            var index = constantIndex.get(value);
+            if (index == null) {
+                index = constants.size();
+                constants.add(value);
+                constantIndex.put(value, index);
+            }
+            return firstConstant + index;
+        }
+
+        private void jump(int op, int a, int b, int target, Token site) {
+            targets.put(length, target);
+            emit(op, a, b, 0, site);
+        }
+
+        private void emit(int op, int a, int b, int c, Token site) {
+            if ((length + 1) * WIDTH > code.length) code = Arrays.copyOf(code, code.length * 2);
+            if (length == sites.length) sites = Arrays.copyOf(sites, sites.length * 2);
+            var at = length * WIDTH;
+            code[at] = op;
+            code[at + 1] = a;
+            code[at + 2] = b;
+            code[at + 3] = c;
+            sites[length++] = site;
+        }
+    }
+
+    public @NotNull String disassemble() {
+        var str = new StringBuilder();
+        for (int i = 0; i < code.length; i += WIDTH) {
+            var op = code[i];
+            str.append(String.format("%4d  %s", i / WIDTH, NAMES[op]));
+            var operands = switch (op) {
+                case ADD, SUB, MUL, DIV, MOD -> 3;
+                case MOV, JEQ, JNE, JLT, JGT, ADDI, SUBI -> 2;
+                case PRINT, READLN, READINT, READALL, JEQI, JNEI, JLTI, JGTI -> 1;
+                default -> 0;
+            };
+            for (int j = 1; j <= operands; j++) str.append(' ').append(register(code[i + j]));
+            if (op == ADDI || op == SUBI) str.append(' ').append(code[i + 3]);
+            if (op >= JEQI && op <= JGTI) str.append(' ').append(code[i + 2]);
+            if (op == J || op == CALL || (op >= JEQ && op <= JGT) || (op >= JEQI && op <= JGTI)) str.append(' ').append(code[i + 3] / WIDTH);
+            str.append('\n');
+        }
+        return str.toString();
+    }
+
+    private String register(int register) {
+        if (register >= firstConstant) {
+            var c = constants[register - firstConstant];
+            return c instanceof String ? "\"" + c + "\"" : String.valueOf(c);
+        }
+        return register >= firstVariable ? "v" + (register - firstVariable) : "r" + register;
+    }
+}
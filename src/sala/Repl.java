@@ -0,0 +1,102 @@
+package sala;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+
+// an interactive session where every entry is compiled onto the end of everything entered before it and run from
+// where the last entry stopped, so the stack, variables, aliases, labels and instructions all carry over; an entry
+// that fails to compile is forgotten, and one that fails while running is replaced with a clear of the stack
+public final class Repl {
+    private final BufferedReader reader;
+    private final PrintStream console;
+    private final ArrayList<Token[]> session = new ArrayList<>();
+    private SalaStack stack = new SalaStack();
+    private SalaVariables vars = new SalaVariables(0);
+    private boolean started;
+    private boolean atLineStart = true;
+    private int entries;
+
+    public Repl(@NotNull BufferedReader reader, @NotNull PrintStream console) {
+        this.reader = reader;
+        this.console = console;
+    }
+
+    public void run() throws IOException {
+        var pending = new ArrayList<String>();
+        var inInstruction = false;
+
+        while (true) {
+            if (!atLineStart) console.println();
+            atLineStart = true;
+            console.print(pending.isEmpty() ? "> " : "... ");
+            var line = reader.readLine();
+            if (line == null) break;
+
+            if (pending.isEmpty() && line.strip().equals("?")) {
+                console.printf("stack %s, variables %s\n", stack, vars);
+                continue;
+            }
+
+            // an instruction definition spans lines, so it is only entered once its end is
+            try {
+                var tokens = new Interpreter.Lexer(line).lexLine(0);
+                if (tokens.length != 0 && tokens[0].is(TokenTypes.WORD, "instr")) inInstruction = true;
+                if (tokens.length != 0 && tokens[0].is(TokenTypes.WORD, "end")) inInstruction = false;
+            } catch (SalaException _) {
+            }
+            pending.add(line);
+            if (inInstruction) continue;
+
+            enter(pending);
+            pending.clear();
+        }
+    }
+
+    private void enter(ArrayList<String> lines) {
+        var size = session.size();
+        var label = "<entry " + ++entries + ">";
+        try {
+            // nothing before the first code runs, so the first entry with code starts at the top, where directives can still go
+            if (started) session.add(new Token[]{new Token(TokenTypes.LABEL, label, 0, session.size())});
+            for (var line : lines) session.add(new Interpreter.Lexer(line).lexLine(session.size()));
+
+            var program = new Compiler().optimize(false).compile(session.toArray(new Token[0][]));
+            var start = started ? program.labels().get(label) : 0;
+            if (program.variables() != vars.size()) vars = vars.resized(program.variables());
+
+            var execution = new Execution(program, this::print, this::readLine, stack, vars, start);
+            started = true;
+            try {
+                execution.run();
+            } catch (SalaException | RuntimeException e) {
+                print(e instanceof SalaException ? e.getMessage() : e.toString());
+                print("\n(stack cleared)");
+                session.subList(size, session.size()).clear();
+                session.add(new Token[]{new Token(TokenTypes.WORD, "clear", 0, session.size())});
+                stack.clear();
+            }
+        } catch (SalaException e) {
+            print(e.getMessage());
+            session.subList(size, session.size()).clear();
+        }
+    }
+
+    private void print(Object obj) {
+        var str = String.valueOf(obj);
+        console.print(str);
+        if (!str.isEmpty()) atLineStart = str.endsWith("\n");
+    }
+
+    private String readLine() {
+        try {
+            return reader.readLine();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
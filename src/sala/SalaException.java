@@ -1,7 +1,7 @@
 package sala;
 
 public class SalaException extends Exception {
-    SalaException(String message) {
+    public SalaException(String message) {
         super(message);
     }
 }
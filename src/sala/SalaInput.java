@@ -1,5 +1,23 @@
 package sala;
 
 public interface SalaInput {
+    long EOF = Long.MIN_VALUE;
+
+    // the next line without its line terminator, or null at the end of the input
     String get();
+
+    // the next line parsed as an int, or EOF at the end of the input
+    default long getInt() {
+        var line = get();
+        if (line == null) return EOF;
+        return Integer.parseInt(line.strip());
+    }
+
+    // everything left in the input
+    default String getAll() {
+        var str = new StringBuilder();
+        String line;
+        while ((line = get()) != null) str.append(line).append('\n');
+        return str.toString();
+    }
 }
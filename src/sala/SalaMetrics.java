@@ -0,0 +1,71 @@
+package sala;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// counts what every interpreter in the JVM has done; they're only added to once a program ends or output is written,
+// so nothing is counted per instruction
+public final class SalaMetrics implements SalaMetricsMBean {
+    public static final String NAME = "sala:type=Interpreter";
+
+    static final SalaMetrics METRICS = new SalaMetrics();
+
+    private final LongAdder instructions = new LongAdder();
+    private final LongAdder scripts = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final AtomicInteger stackPeak = new AtomicInteger();
+    private final LongAdder output = new LongAdder();
+
+    private SalaMetrics() {
+    }
+
+    // makes the metrics visible to JMX clients as sala:type=Interpreter, once however many times it's called
+    public static void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(METRICS, new ObjectName(NAME));
+        } catch (InstanceAlreadyExistsException _) {
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void executed(long instructions, int stackPeak, boolean failed) {
+        this.instructions.add(instructions);
+        scripts.increment();
+        if (failed) failures.increment();
+        if (stackPeak > this.stackPeak.get()) this.stackPeak.accumulateAndGet(stackPeak, Math::max);
+    }
+
+    void wrote(long bytes) {
+        output.add(bytes);
+    }
+
+    @Override
+    public long getInstructionsExecuted() {
+        return instructions.sum();
+    }
+
+    @Override
+    public long getScriptsRun() {
+        return scripts.sum();
+    }
+
+    @Override
+    public long getScriptsFailed() {
+        return failures.sum();
+    }
+
+    @Override
+    public int getStackHighWaterMark() {
+        return stackPeak.get();
+    }
+
+    @Override
+    public long getOutputBytes() {
+        return output.sum();
+    }
+}
@@ -0,0 +1,15 @@
+package sala;
+
+// the counters SalaMetrics exposes over JMX, all cumulative since the JVM started
+public interface SalaMetricsMBean {
+    long getInstructionsExecuted();
+
+    long getScriptsRun();
+
+    long getScriptsFailed();
+
+    // the deepest any program's stack has been
+    int getStackHighWaterMark();
+
+    long getOutputBytes();
+}
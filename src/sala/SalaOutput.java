@@ -2,5 +2,8 @@ package sala;
 
 public interface SalaOutput {
     void print(Object obj);
-}
 
+    default void printInt(int value) {
+        print(value);
+    }
+}
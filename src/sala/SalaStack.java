@@ -1,10 +1,181 @@
 package sala;
 
-import java.util.Stack;
+import java.util.Arrays;
+
+public class SalaStack {
+    public static final byte INT = 0;
+    public static final byte FLOAT = 1;
+    public static final byte REF = 2;
+
+    private int[] values;
+    private Object[] refs;
+    private byte[] tags;
+    private int size;
+    // the deepest the stack has been
+    private int peak;
+
+    public SalaStack(int capacity) {
+        capacity = Math.max(capacity, 1);
+        values = new int[capacity];
+        refs = new Object[capacity];
+        tags = new byte[capacity];
+    }
+
+    public SalaStack() {
+        this(16);
+    }
+
+    private void grow() {
+        var capacity = values.length * 2;
+        values = Arrays.copyOf(values, capacity);
+        refs = Arrays.copyOf(refs, capacity);
+        tags = Arrays.copyOf(tags, capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int peak() {
+        return peak;
+    }
+
+    public boolean empty() {
+        return size == 0;
+    }
 
-public class SalaStack extends Stack<Object> {
     public boolean hasAmount(int amount) {
-        return amount <= this.size();
+        return amount <= size;
+    }
+
+    public void clear() {
+        Arrays.fill(refs, 0, size, null);
+        size = 0;
+    }
+
+    public byte tag(int depth) {
+        return tags[size - 1 - depth];
+    }
+
+    public boolean topIsInts() {
+        return tags[size - 1] == INT && tags[size - 2] == INT;
+    }
+
+    public boolean topIsNumbers() {
+        return tags[size - 1] != REF && tags[size - 2] != REF;
+    }
+
+    public void pushInt(int value) {
+        if (size == values.length) grow();
+        values[size] = value;
+        tags[size++] = INT;
+        if (size > peak) peak = size;
+    }
+
+    public void pushFloat(float value) {
+        if (size == values.length) grow();
+        values[size] = Float.floatToRawIntBits(value);
+        tags[size++] = FLOAT;
+        if (size > peak) peak = size;
+    }
+
+    public void push(Object value) {
+        switch (value) {
+            case Integer i -> pushInt(i);
+            case Float f -> pushFloat(f);
+            default -> {
+                if (size == values.length) grow();
+                refs[size] = value;
+                tags[size++] = REF;
+                if (size > peak) peak = size;
+            }
+        }
+    }
+
+    public int popInt() {
+        return values[--size];
+    }
+
+    public float popFloat() {
+        var i = --size;
+        return tags[i] == INT ? values[i] : Float.intBitsToFloat(values[i]);
+    }
+
+    // pop, peek and toArray flatten the strings add and mul build lazily, which only they take as they are
+    public Object pop() {
+        return SalaString.flatten(popRaw());
+    }
+
+    Object popRaw() {
+        var i = --size;
+        return switch (tags[i]) {
+            case INT -> values[i];
+            case FLOAT -> Float.intBitsToFloat(values[i]);
+            default -> {
+                var v = refs[i];
+                refs[i] = null;
+                yield v;
+            }
+        };
+    }
+
+    public int peekInt() {
+        return values[size - 1];
+    }
+
+    public float peekFloat() {
+        var i = size - 1;
+        return tags[i] == INT ? values[i] : Float.intBitsToFloat(values[i]);
+    }
+
+    public Object peek() {
+        var i = size - 1;
+        return switch (tags[i]) {
+            case INT -> values[i];
+            case FLOAT -> Float.intBitsToFloat(values[i]);
+            default -> SalaString.flatten(refs[i]);
+        };
+    }
+
+    public void dup() {
+        if (size == values.length) grow();
+        values[size] = values[size - 1];
+        refs[size] = refs[size - 1];
+        tags[size] = tags[size - 1];
+        size++;
+        if (size > peak) peak = size;
+    }
+
+    public void load(SalaVariables vars, int slot) {
+        if (size == values.length) grow();
+        values[size] = vars.values[slot];
+        refs[size] = vars.refs[slot];
+        tags[size++] = vars.tags[slot];
+        if (size > peak) peak = size;
+    }
+
+    public void store(SalaVariables vars, int slot) {
+        storeTop(vars, slot);
+        refs[--size] = null;
+    }
+
+    public void storeTop(SalaVariables vars, int slot) {
+        var i = size - 1;
+        vars.values[slot] = values[i];
+        vars.refs[slot] = refs[i];
+        vars.tags[slot] = tags[i];
+    }
+
+    public Object[] toArray() {
+        var a = new Object[size];
+        for (int i = 0; i < size; i++) {
+            a[i] = switch (tags[i]) {
+                case INT -> values[i];
+                case FLOAT -> Float.intBitsToFloat(values[i]);
+                default -> SalaString.flatten(refs[i]);
+            };
+        }
+        return a;
     }
 
     @Override
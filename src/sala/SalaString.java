@@ -0,0 +1,78 @@
+package sala;
+
+// a string built by add or mul at runtime, which defers copying characters until something looks at it: appending to
+// the newest string built on a builder appends to the builder in place, and repeating one only records the count.
+// nothing outside the runtime sees these, since everything that prints, compares or hands out a value flattens it
+final class SalaString {
+    // shorter results stay plain strings, which are cheaper to build, compare and print than a builder
+    static final int MIN_LENGTH = 256;
+
+    // the characters of this string are the first length of chars, which later appends to the same builder don't touch
+    private final StringBuilder chars;
+    // or it's base repeated count times
+    private final Object base;
+    private final int count;
+    private final int length;
+    private String flat;
+
+    private SalaString(StringBuilder chars, Object base, int count, int length) {
+        this.chars = chars;
+        this.base = base;
+        this.count = count;
+        this.length = length;
+    }
+
+    static Object flatten(Object value) {
+        return value instanceof SalaString s ? s.toString() : value;
+    }
+
+    static boolean isString(Object value) {
+        return value instanceof String || value instanceof SalaString;
+    }
+
+    private static int length(Object value) {
+        return value instanceof SalaString s ? s.length : ((String) value).length();
+    }
+
+    // a and b are each a String or a SalaString
+    static Object concat(Object a, Object b) {
+        var length = (long) length(a) + length(b);
+        if (length < MIN_LENGTH) return a.toString() + b;
+        if (length > Integer.MAX_VALUE) throw new OutOfMemoryError("Overflow: String length out of range");
+
+        if (a instanceof SalaString s && s.chars != null && s.chars.length() == s.length) {
+            append(s.chars, b);
+            return new SalaString(s.chars, null, 0, (int) length);
+        }
+        // the builder doubles as it grows, which is what keeps a loop of appends linear
+        var chars = new StringBuilder((int) length);
+        append(chars, a);
+        append(chars, b);
+        return new SalaString(chars, null, 0, (int) length);
+    }
+
+    static Object repeat(Object value, int count) {
+        if (count < 0) throw new IllegalArgumentException("count is negative: " + count);
+        var length = (long) length(value) * count;
+        if (length < MIN_LENGTH) return value.toString().repeat(count);
+        if (length > Integer.MAX_VALUE) throw new OutOfMemoryError("Required length exceeds implementation limit");
+
+        // repeating a repeat multiplies the counts, so bases never nest
+        if (value instanceof SalaString s && s.base != null) return new SalaString(null, s.base, s.count * count, (int) length);
+        return new SalaString(null, value, count, (int) length);
+    }
+
+    private static void append(StringBuilder chars, Object value) {
+        if (value instanceof SalaString s && s.flat == null && s.chars != null && s.chars != chars) {
+            chars.append(s.chars, 0, s.length);
+        } else {
+            chars.append(value.toString());
+        }
+    }
+
+    @Override
+    public String toString() {
+        if (flat == null) flat = chars != null ? chars.substring(0, length) : base.toString().repeat(count);
+        return flat;
+    }
+}
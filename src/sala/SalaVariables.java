@@ -0,0 +1,66 @@
+package sala;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+public class SalaVariables {
+    final int[] values;
+    final Object[] refs;
+    final byte[] tags;
+
+    // every slot starts out as the int 0
+    public SalaVariables(int size) {
+        values = new int[size];
+        refs = new Object[size];
+        tags = new byte[size];
+    }
+
+    // a copy with room for size variables, keeping the values of the ones both have
+    @NotNull SalaVariables resized(int size) {
+        var vars = new SalaVariables(size);
+        var n = Math.min(size, values.length);
+        System.arraycopy(values, 0, vars.values, 0, n);
+        System.arraycopy(refs, 0, vars.refs, 0, n);
+        System.arraycopy(tags, 0, vars.tags, 0, n);
+        return vars;
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    public Object get(int slot) {
+        return switch (tags[slot]) {
+            case SalaStack.INT -> values[slot];
+            case SalaStack.FLOAT -> Float.intBitsToFloat(values[slot]);
+            default -> SalaString.flatten(refs[slot]);
+        };
+    }
+
+    public void set(int slot, Object value) {
+        switch (value) {
+            case Integer i -> {
+                values[slot] = i;
+                refs[slot] = null;
+                tags[slot] = SalaStack.INT;
+            }
+            case Float f -> {
+                values[slot] = Float.floatToRawIntBits(f);
+                refs[slot] = null;
+                tags[slot] = SalaStack.FLOAT;
+            }
+            default -> {
+                refs[slot] = value;
+                tags[slot] = SalaStack.REF;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        var a = new Object[values.length];
+        for (int i = 0; i < a.length; i++) a[i] = get(i);
+        return Arrays.toString(a);
+    }
+}
@@ -0,0 +1,108 @@
+package sala;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Comparator;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+// multiplexes many executions on a few worker threads: a worker runs the task that has had the least weighted time,
+// for one quantum of instructions, and puts it back if it hasn't ended
+public final class Scheduler implements AutoCloseable {
+    public static final class Task {
+        private final Execution execution;
+        private final int priority;
+        private final CompletableFuture<Execution> completion = new CompletableFuture<>();
+        private long runtime;
+
+        private Task(Execution execution, int priority, long runtime) {
+            this.execution = execution;
+            this.priority = priority;
+            this.runtime = runtime;
+        }
+
+        public @NotNull Execution execution() {
+            return execution;
+        }
+
+        public int priority() {
+            return priority;
+        }
+
+        // completes with the execution once it ends, or exceptionally with whatever stopped it
+        public @NotNull CompletableFuture<Execution> completion() {
+            return completion;
+        }
+    }
+
+    private final long quantum;
+    private final PriorityBlockingQueue<Task> queue = new PriorityBlockingQueue<>(64, Comparator.comparingLong((Task t) -> t.runtime));
+    private final Set<CompletableFuture<Execution>> pending = ConcurrentHashMap.newKeySet();
+    private final AtomicLong clock = new AtomicLong();
+    private final Thread[] workers;
+
+    public Scheduler(int workers, long quantum) {
+        if (workers < 1 || quantum < 1) throw new IllegalArgumentException("a scheduler needs at least one worker and a positive quantum");
+        this.quantum = quantum;
+        this.workers = new Thread[workers];
+        for (int i = 0; i < workers; i++) {
+            this.workers[i] = Thread.ofPlatform().name("sala-worker-" + i).daemon().start(this::work);
+        }
+    }
+
+    public Scheduler(int workers) {
+        this(workers, 10_000);
+    }
+
+    // a task with priority n gets n times the instructions of a task with priority 1
+    public @NotNull Task submit(@NotNull Execution execution, int priority) {
+        if (priority < 1) throw new IllegalArgumentException("priority must be at least 1");
+        // new tasks start level with the ones that are running, so they neither starve them nor get starved
+        var task = new Task(execution, priority, clock.get());
+        pending.add(task.completion);
+        task.completion.whenComplete((_, _) -> pending.remove(task.completion));
+        queue.add(task);
+        return task;
+    }
+
+    public @NotNull Task submit(@NotNull Execution execution) {
+        return submit(execution, 1);
+    }
+
+    private void work() {
+        while (true) {
+            Task task;
+            try {
+                task = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            clock.accumulateAndGet(task.runtime, Math::max);
+            var before = task.execution.executed();
+            try {
+                if (task.execution.run(quantum)) {
+                    task.completion.complete(task.execution);
+                    continue;
+                }
+            } catch (Throwable e) {
+                // errors end the task too, since a worker that died with one would leave it and close() waiting forever
+                task.completion.completeExceptionally(e);
+                continue;
+            }
+
+            task.runtime += Math.max(1, (task.execution.executed() - before) / task.priority);
+            queue.add(task);
+        }
+    }
+
+    // waits for every submitted task to end, then stops the workers
+    @Override
+    public void close() {
+        while (!pending.isEmpty()) CompletableFuture.allOf(pending.toArray(CompletableFuture[]::new)).handle((_, _) -> null).join();
+        for (var worker : workers) worker.interrupt();
+    }
+}
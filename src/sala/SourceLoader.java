@@ -0,0 +1,66 @@
+package sala;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public final class SourceLoader {
+    private static final int CHUNK = 1 << 16;
+
+    private SourceLoader() {
+    }
+
+    private static CharsetDecoder decoder() {
+        return StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    public static @NotNull ByteBuffer mapBytes(@NotNull Path path) throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            var size = channel.size();
+            if (size > Integer.MAX_VALUE) throw new IOException("file is too large");
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+
+    public static @NotNull CharBuffer decode(@NotNull ByteBuffer bytes) throws IOException {
+        return decoder().decode(bytes.duplicate());
+    }
+
+    public static @NotNull CharBuffer map(@NotNull Path path) throws IOException {
+        return decode(mapBytes(path));
+    }
+
+    public static @NotNull CharBuffer read(@NotNull ReadableByteChannel channel) throws IOException {
+        var decoder = decoder();
+        var in = ByteBuffer.allocate(CHUNK);
+        var out = CharBuffer.allocate(CHUNK);
+
+        while (true) {
+            var n = channel.read(in);
+            in.flip();
+            // UTF-8 never decodes to more chars than it has bytes
+            if (out.remaining() < in.remaining()) {
+                var grown = CharBuffer.allocate(Math.max(out.capacity() * 2, out.position() + in.remaining()));
+                grown.put(out.flip());
+                out = grown;
+            }
+            decoder.decode(in, out, n == -1);
+            in.compact();
+            if (n == -1) break;
+        }
+
+        decoder.flush(out);
+        return out.flip();
+    }
+}
@@ -1,209 +1,207 @@
 package sala;
 
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
 
 public class StandardInstructions {
-    public static Map<String, SalaEntry> get(SalaStack stack, Object[] vars, SalaOutput out, Map<String, Integer> labels) {
-        var _1 = new HashMap<>((Map.of(
-                "print", new SalaEntry(new Instruction(), (_, it, _) -> {
-                    if (stack.empty()) throw new SalaException(it.err("stack underflow"));
-                    out.print(stack.pop());
-                }),
-                "push", new SalaEntry(new Instruction().expect(new TokenTypes[]{TokenTypes.STRING, TokenTypes.NUMBER}), (_, _, args) -> {
-                    var a = args[0];
-                    if (a.is(TokenTypes.STRING)) {
-                        stack.push(a.getLiteral());
-                    } else if (a.is(TokenTypes.NUMBER)) {
-                        stack.push(Integer.parseInt(a.getLiteral()));
-                    }
-                }),
-                "clear", new SalaEntry(new Instruction().expect(TokenTypes.NONE), (_, _, _) -> stack.clear()),
-                "dup", new SalaEntry(new Instruction().expect(TokenTypes.NONE), (_, it, _) -> {
-                    if (stack.empty()) throw new SalaException(it.err("stack underflow"));
-                    var v = stack.pop();
-                    stack.push(v);
-                    stack.push(v);
-                }),
-                "add", new SalaEntry(new Instruction(), (_, it, _) -> {
-                    if (!stack.hasAmount(2)) throw new SalaException(it.err("stack underflow"));
-                    var b = stack.pop();
-                    var a = stack.pop();
-                    if (a == null || b == null) throw new NullPointerException(it.err("a or b is null"));
-
-                    switch (a) {
-                        case Integer i when b instanceof Integer -> stack.push(i + (Integer) b);
-                        case Float f when b instanceof Float -> stack.push(f + (Float) b);
-                        case Integer i when b instanceof Float -> stack.push(i + (Float) b);
-                        case Float f when b instanceof Integer -> stack.push(f + (Integer) b);
-                        case String s when b instanceof String -> stack.push(s + b);
-                        case null, default ->
-                                throw new SalaException(it.err("invalid types for addition: '%s' and '%s'", a.getClass().toString().toLowerCase(), b.getClass().toString().toLowerCase()));
-                    }
-                }),
-                "sub", new SalaEntry(new Instruction(), (_, it, _) -> {
-                    if (!stack.hasAmount(2)) throw new SalaException(it.err("stack underflow"));
-                    var b = stack.pop();
-                    var a = stack.pop();
-                    if (a == null || b == null) throw new NullPointerException(it.err("a or b is null"));
-
-                    switch (a) {
-                        case Integer i when b instanceof Integer -> stack.push(i - (Integer) b);
-                        case Float f when b instanceof Float -> stack.push(f - (Float) b);
-                        case Integer i when b instanceof Float -> stack.push(i - (Float) b);
-                        case Float f when b instanceof Integer -> stack.push(f - (Integer) b);
-                        case null, default ->
-                                throw new SalaException(it.err("invalid types for subtraction: '%s' and '%s'", a.getClass().toString().toLowerCase(), b.getClass().toString().toLowerCase()));
-                    }
-                }),
-                "mul", new SalaEntry(new Instruction(), (_, it, _) -> {
-                    if (!stack.hasAmount(2)) throw new SalaException(it.err("stack underflow"));
-                    var b = stack.pop();
-                    var a = stack.pop();
-                    if (a == null || b == null) throw new NullPointerException(it.err("a or b is null"));
-
-                    switch (a) {
-                        case Integer i when b instanceof Integer -> stack.push(i * (Integer) b);
-                        case Float f when b instanceof Float -> stack.push(f * (Float) b);
-                        case Integer i when b instanceof Float -> stack.push(i * (Float) b);
-                        case Float f when b instanceof Integer -> stack.push(f * (Integer) b);
-                        case String s when b instanceof Integer -> {
-                            stack.push(s.repeat((Integer) b));
-                        }
-                        case null, default ->
-                                throw new SalaException(it.err("invalid types for multiplication: '%s' and '%s'", a.getClass().toString().toLowerCase(), b.getClass().toString().toLowerCase()));
-                    }
-                }),
-                "div", new SalaEntry(new Instruction(), (_, it, _) -> {
-                    if (!stack.hasAmount(2)) throw new SalaException(it.err("stack underflow"));
-                    var b = stack.pop();
-                    var a = stack.pop();
-                    if (a == null || b == null) throw new NullPointerException(it.err("a or b is null"));
-
-                    switch (a) {
-                        case Integer i when b instanceof Integer -> stack.push(i / (Integer) b);
-                        case Float f when b instanceof Float -> stack.push(f / (Float) b);
-                        case Integer i when b instanceof Float -> stack.push(i / (Float) b);
-                        case Float f when b instanceof Integer -> stack.push(f / (Integer) b);
-                        case null, default ->
-                                throw new SalaException(it.err("invalid types for division: '%s' and '%s'", a.getClass().toString().toLowerCase(), b.getClass().toString().toLowerCase()));
-                    }
-                }),
-                "mod", new SalaEntry(new Instruction(), (_, it, _) -> {
-                    if (!stack.hasAmount(2)) throw new SalaException(it.err("stack underflow"));
-                    var b = stack.pop();
-                    var a = stack.pop();
-                    if (a == null || b == null) throw new NullPointerException(it.err("a or b is null"));
-
-                    switch (a) {
-                        case Integer i when b instanceof Integer -> stack.push(i % (Integer) b);
-                        case Float f when b instanceof Float -> stack.push(f % (Float) b);
-                        case Integer i when b instanceof Float -> stack.push(i % (Float) b);
-                        case Float f when b instanceof Integer -> stack.push(f % (Integer) b);
-                        case null, default ->
-                                throw new SalaException(it.err("invalid types for modulus: '%s' and '%s'", a.getClass().toString().toLowerCase(), b.getClass().toString().toLowerCase()));
-                    }
-                }),
-                "j", new SalaEntry(new Instruction().expect(TokenTypes.WORD), (index, it, args) -> {
-                    if (!stack.hasAmount(2)) throw new SalaException(it.err("stack underflow"));
-                    var b = stack.pop();
-                    var a = stack.pop();
-                    if (a == null || b == null) throw new NullPointerException(it.err("a or b is null"));
-
-                    var jumpPos = labels.get(args[0].getLiteral());
-                    if (jumpPos == null)
-                        throw new SalaException(args[0].err("label '%s' does not exist", args[0].getLiteral()));
-                    index.value = jumpPos;
-                })
-        )));
-
-        var _2 = new HashMap<>(Map.of(
-                "jeq", new SalaEntry(new Instruction().expect(TokenTypes.WORD), (index, it, args) -> {
-                    // System.out.println("reached jeq");
-                    if (!stack.hasAmount(2)) throw new SalaException(it.err("stack underflow"));
-                    var b = stack.pop();
-                    var a = stack.pop();
-                    if (a == null || b == null) throw new NullPointerException(it.err("a or b is null"));
-
-                    var jumpPos = labels.get(args[0].getLiteral());
-                    if (jumpPos == null) throw new SalaException(args[0].err("label '%s' does not exist", args[0].getLiteral()));
-                    // System.out.println(a.equals(b) ? "a equals b" : "a does not equal b");
-                    if (a.equals(b)) {
-                        index.value = jumpPos;
-                    }
-                }),
-                "jne", new SalaEntry(new Instruction().expect(TokenTypes.WORD), (index, it, args) -> {
-                    if (!stack.hasAmount(2)) throw new SalaException(it.err("stack underflow"));
-                    var b = stack.pop();
-                    var a = stack.pop();
-                    if (a == null || b == null) throw new NullPointerException(it.err("a or b is null"));
-
-                    var jumpPos = labels.get(args[0].getLiteral());
-                    if (jumpPos == null) throw new SalaException(args[0].err("label '%s' does not exist", args[0].getLiteral()));
-                    if (!a.equals(b)) {
-                        index.value = jumpPos;
-                    }
-                }),
-                "jlt", new SalaEntry(new Instruction().expect(TokenTypes.WORD), (index, it, args) -> {
-                    if (!stack.hasAmount(2)) throw new SalaException(it.err("stack underflow"));
-                    var b = stack.pop();
-                    var a = stack.pop();
-                    if (a == null || b == null) throw new NullPointerException(it.err("a or b is null"));
-
-                    var jumpPos = labels.get(args[0].getLiteral());
-                    if (jumpPos == null) throw new SalaException(args[0].err("label '%s' does not exist", args[0].getLiteral()));
-
-                    boolean jump =  switch (a) {
-                        case Integer i when b instanceof Integer -> i < (Integer) b;
-                        case Float f when b instanceof Float -> f < (Float) b;
-                        case Integer i when b instanceof Float -> i < (Float) b;
-                        case Float f when b instanceof Integer -> f < (Integer) b;
-                        case null, default ->
-                                throw new SalaException(it.err("invalid types for less than: '%s' and '%s'", a.getClass().toString().toLowerCase(), b.getClass().toString().toLowerCase()));
-                    };
-
-                    //System.out.println(jump ? String.format("%s is less than %s", a, b) : String.format("%s is not less than %s", a, b));
-
-                    if (jump) {
-                        index.value = jumpPos;
-                    }
-                }),
-                "jgt", new SalaEntry(new Instruction().expect(TokenTypes.WORD), (index, it, args) -> {
-                    if (!stack.hasAmount(2)) throw new SalaException(it.err("stack underflow"));
-                    var b = stack.pop();
-                    var a = stack.pop();
-                    if (a == null || b == null) throw new NullPointerException(it.err("a or b is null"));
-
-                    var jumpPos = labels.get(args[0].getLiteral());
-                    if (jumpPos == null) throw new SalaException(args[0].err("label '%s' does not exist", args[0].getLiteral()));
-
-                    boolean jump =  switch (a) {
-                        case Integer i when b instanceof Integer -> i > (Integer) b;
-                        case Float f when b instanceof Float -> f > (Float) b;
-                        case Integer i when b instanceof Float -> i > (Float) b;
-                        case Float f when b instanceof Integer -> f > (Integer) b;
-                        case null, default ->
-                                throw new SalaException(it.err("invalid types for less than: '%s' and '%s'", a.getClass().toString().toLowerCase(), b.getClass().toString().toLowerCase()));
-                    };
-
-                    if (jump) {
-                        index.value = jumpPos;
-                    }
-                })
-        ));
-
-        /*
-        var inception_1 = new HashMap<>(Map.of(
-                "", new SalaEntry();
-        ));
-        */
-
-        var outMap = new HashMap<String, SalaEntry>();
-        outMap.putAll(_1);
-        outMap.putAll(_2);
-
-        //outMap.putAll(inception_1);
-
-        return outMap;
+    private static final Map<String, Integer> OPCODES = new HashMap<>();
+    private static final Instruction[] SIGNATURES = new Instruction[Opcodes.NAMES.length];
+    private static final Instruction NO_OPERANDS = new Instruction();
+    static final NativeInstruction[] EXTENSIONS;
+
+    static {
+        define(Opcodes.PRINT, new Instruction());
+        define(Opcodes.PUSH, new Instruction().expect(new TokenTypes[]{TokenTypes.STRING, TokenTypes.NUMBER}));
+        define(Opcodes.CLEAR, new Instruction().expect(TokenTypes.NONE));
+        define(Opcodes.DUP, new Instruction().expect(TokenTypes.NONE));
+        define(Opcodes.ADD, new Instruction());
+        define(Opcodes.SUB, new Instruction());
+        define(Opcodes.MUL, new Instruction());
+        define(Opcodes.DIV, new Instruction());
+        define(Opcodes.MOD, new Instruction());
+        define(Opcodes.J, new Instruction().expect(TokenTypes.WORD));
+        define(Opcodes.JEQ, new Instruction().expect(TokenTypes.WORD));
+        define(Opcodes.JNE, new Instruction().expect(TokenTypes.WORD));
+        define(Opcodes.JLT, new Instruction().expect(TokenTypes.WORD));
+        define(Opcodes.JGT, new Instruction().expect(TokenTypes.WORD));
+        define(Opcodes.READLN, new Instruction().expect(TokenTypes.NONE));
+        define(Opcodes.READINT, new Instruction().expect(TokenTypes.NONE));
+        define(Opcodes.READALL, new Instruction().expect(TokenTypes.NONE));
+        define(Opcodes.GV, new Instruction().expect(TokenTypes.NUMBER));
+        define(Opcodes.SV, new Instruction().expect(TokenTypes.NUMBER));
+
+        // packs are bound in name order, so the same packs always get the same opcodes
+        var extensions = new ArrayList<NativeInstruction>();
+        for (var pack : ServiceLoader.load(InstructionPack.class)) extensions.addAll(pack.instructions());
+        extensions.sort(Comparator.comparing(NativeInstruction::name));
+        EXTENSIONS = extensions.toArray(NativeInstruction[]::new);
+        for (int i = 0; i < EXTENSIONS.length; i++) {
+            var name = EXTENSIONS[i].name();
+            if (OPCODES.containsKey(name)) throw new ServiceConfigurationError("instruction '" + name + "' is defined more than once");
+            OPCODES.put(name, Opcodes.FIRST_EXTENSION + i);
+        }
+    }
+
+    private static void define(int opcode, Instruction signature) {
+        OPCODES.put(Opcodes.NAMES[opcode], opcode);
+        SIGNATURES[opcode] = signature;
+    }
+
+    public static int opcode(String name) {
+        var op = OPCODES.get(name);
+        return op == null ? -1 : op;
+    }
+
+    public static Instruction signature(int opcode) {
+        return opcode >= Opcodes.FIRST_EXTENSION ? NO_OPERANDS : SIGNATURES[opcode];
+    }
+
+    public static boolean isExtension(int opcode) {
+        return opcode >= Opcodes.FIRST_EXTENSION && opcode - Opcodes.FIRST_EXTENSION < EXTENSIONS.length;
+    }
+
+    public static NativeInstruction extension(int opcode) {
+        return EXTENSIONS[opcode - Opcodes.FIRST_EXTENSION];
+    }
+
+    // strings built at runtime count as strings, whatever they're built with
+    private static String type(Object value) {
+        return (SalaString.isString(value) ? String.class : value.getClass()).toString().toLowerCase();
+    }
+
+    public static boolean equal(Object a, Object b) {
+        return SalaString.flatten(a).equals(SalaString.flatten(b));
+    }
+
+    public static Object add(Token it, Object a, Object b) throws SalaException {
+        if (a == null || b == null) throw new NullPointerException(it.err("a or b is null"));
+
+        return switch (a) {
+            case Integer i when b instanceof Integer -> i + (Integer) b;
+            case Float f when b instanceof Float -> f + (Float) b;
+            case Integer i when b instanceof Float -> i + (Float) b;
+            case Float f when b instanceof Integer -> f + (Integer) b;
+            case String s when SalaString.isString(b) -> SalaString.concat(s, b);
+            case SalaString s when SalaString.isString(b) -> SalaString.concat(s, b);
+            default ->
+                    throw new SalaException(it.err("invalid types for addition: '%s' and '%s'", type(a), type(b)));
+        };
+    }
+
+    public static Object sub(Token it, Object a, Object b) throws SalaException {
+        if (a == null || b == null) throw new NullPointerException(it.err("a or b is null"));
+
+        return switch (a) {
+            case Integer i when b instanceof Integer -> i - (Integer) b;
+            case Float f when b instanceof Float -> f - (Float) b;
+            case Integer i when b instanceof Float -> i - (Float) b;
+            case Float f when b instanceof Integer -> f - (Integer) b;
+            default ->
+                    throw new SalaException(it.err("invalid types for subtraction: '%s' and '%s'", type(a), type(b)));
+        };
+    }
+
+    public static Object mul(Token it, Object a, Object b) throws SalaException {
+        if (a == null || b == null) throw new NullPointerException(it.err("a or b is null"));
+
+        return switch (a) {
+            case Integer i when b instanceof Integer -> i * (Integer) b;
+            case Float f when b instanceof Float -> f * (Float) b;
+            case Integer i when b instanceof Float -> i * (Float) b;
+            case Float f when b instanceof Integer -> f * (Integer) b;
+            case String s when b instanceof Integer -> SalaString.repeat(s, (Integer) b);
+            case SalaString s when b instanceof Integer -> SalaString.repeat(s, (Integer) b);
+            default ->
+                    throw new SalaException(it.err("invalid types for multiplication: '%s' and '%s'", type(a), type(b)));
+        };
+    }
+
+    public static Object div(Token it, Object a, Object b) throws SalaException {
+        if (a == null || b == null) throw new NullPointerException(it.err("a or b is null"));
+
+        return switch (a) {
+            case Integer i when b instanceof Integer -> i / (Integer) b;
+            case Float f when b instanceof Float -> f / (Float) b;
+            case Integer i when b instanceof Float -> i / (Float) b;
+            case Float f when b instanceof Integer -> f / (Integer) b;
+            default ->
+                    throw new SalaException(it.err("invalid types for division: '%s' and '%s'", type(a), type(b)));
+        };
+    }
+
+    public static Object mod(Token it, Object a, Object b) throws SalaException {
+        if (a == null || b == null) throw new NullPointerException(it.err("a or b is null"));
+
+        return switch (a) {
+            case Integer i when b instanceof Integer -> i % (Integer) b;
+            case Float f when b instanceof Float -> f % (Float) b;
+            case Integer i when b instanceof Float -> i % (Float) b;
+            case Float f when b instanceof Integer -> f % (Integer) b;
+            default ->
+                    throw new SalaException(it.err("invalid types for modulus: '%s' and '%s'", type(a), type(b)));
+        };
+    }
+
+    public static boolean lessThan(Token it, Object a, Object b) throws SalaException {
+        if (a == null || b == null) throw new NullPointerException(it.err("a or b is null"));
+
+        return switch (a) {
+            case Integer i when b instanceof Integer -> i < (Integer) b;
+            case Float f when b instanceof Float -> f < (Float) b;
+            case Integer i when b instanceof Float -> i < (Float) b;
+            case Float f when b instanceof Integer -> f < (Integer) b;
+            default ->
+                    throw new SalaException(it.err("invalid types for less than: '%s' and '%s'", type(a), type(b)));
+        };
+    }
+
+    public static boolean greaterThan(Token it, Object a, Object b) throws SalaException {
+        if (a == null || b == null) throw new NullPointerException(it.err("a or b is null"));
+
+        return switch (a) {
+            case Integer i when b instanceof Integer -> i > (Integer) b;
+            case Float f when b instanceof Float -> f > (Float) b;
+            case Integer i when b instanceof Float -> i > (Float) b;
+            case Float f when b instanceof Integer -> f > (Integer) b;
+            default ->
+                    throw new SalaException(it.err("invalid types for less than: '%s' and '%s'", type(a), type(b)));
+        };
+    }
+
+    // compiled programs read with one call and then split what it returned into the two values the instruction pushes
+    public static String readLine(SalaInput in) {
+        return in.get();
+    }
+
+    public static long readInt(Token it, SalaInput in) throws SalaException {
+        try {
+            return in.getInt();
+        } catch (NumberFormatException e) {
+            throw new SalaException(it.err("input is not an integer"));
+        }
+    }
+
+    public static String readAll(SalaInput in) {
+        return in.getAll();
+    }
+
+    public static String line(String line) {
+        return line == null ? "" : line;
+    }
+
+    public static int found(String line) {
+        return line == null ? 0 : 1;
+    }
+
+    public static int value(long value) {
+        return value == SalaInput.EOF ? 0 : (int) value;
+    }
+
+    public static int found(long value) {
+        return value == SalaInput.EOF ? 0 : 1;
     }
 }
@@ -5,16 +5,25 @@ import java.util.Objects;
 
 public class Token {
     private final TokenTypes type;
-    private final String literal;
+    private final CharSequence source;
+    private final int offset, length;
+    private String literal;
     private final int start, ln;
 
-    public Token(TokenTypes type, String literal, int start, int ln) {
+    Token(TokenTypes type, CharSequence source, int offset, int length, int start, int ln) {
         this.type = type;
-        this.literal = literal;
+        this.source = source;
+        this.offset = offset;
+        this.length = length;
         this.start = start;
         this.ln = ln;
     }
 
+    public Token(TokenTypes type, String literal, int start, int ln) {
+        this(type, literal, 0, literal.length(), start, ln);
+        this.literal = literal;
+    }
+
     public Token(TokenTypes type, String literal) {
         this(type, literal, -1, -1);
     }
@@ -24,7 +33,7 @@ public class Token {
     }
 
     public boolean is(TokenTypes type, String literal) {
-        return this.type == type && Objects.equals(this.literal, literal);
+        return this.type == type && is(literal);
     }
 
     public boolean is(TokenTypes type) {
@@ -32,7 +41,26 @@ public class Token {
     }
 
     public boolean is(String literal) {
-        return Objects.equals(this.literal, literal);
+        if (this.literal != null || literal == null) return Objects.equals(this.literal, literal);
+        if (literal.length() != length) return false;
+        for (int i = 0; i < length; i++) {
+            if (source.charAt(offset + i) != literal.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    // the same token on another line, for a line that moved since it was lexed
+    Token atLine(int ln) {
+        if (ln == this.ln) return this;
+        var token = new Token(type, source, offset, length, start, ln);
+        token.literal = literal;
+        return token;
+    }
+
+    // the same token without the source it was sliced from
+    Token detach() {
+        if (source == literal) return this;
+        return new Token(type, getLiteral(), start, ln);
     }
 
     public String pos() {
@@ -53,21 +81,34 @@ public class Token {
 
     public Token fromAlias(Map<String, Token> aliasMap) throws SalaException {
         if (type != TokenTypes.ALIAS) throw new SalaException(err("token is not an alias token"));
-        var result = aliasMap.get(literal);
-        if (result == null) throw new SalaException(err("unknown alias '%s'", literal));
+        var result = aliasMap.get(getLiteral());
+        if (result == null) throw new SalaException(err("unknown alias '%s'", getLiteral()));
         return result;
     }
 
     public String getLiteral() {
-        return literal;
+        var l = literal;
+        if (l == null) {
+            l = source.subSequence(offset, offset + length).toString().intern();
+            literal = l;
+        }
+        return l;
     }
 
     public TokenTypes getType() {
         return type;
     }
 
+    public int getStart() {
+        return start;
+    }
+
+    public int getLine() {
+        return ln;
+    }
+
     @Override
     public String toString() {
-        return String.format("Token{%s, '%s', %d, %d}", type.toString(), literal, start, ln);
+        return String.format("Token{%s, '%s', %d, %d}", type.toString(), getLiteral(), start, ln);
     }
 }
@@ -0,0 +1,206 @@
+package sala;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+final class Verifier {
+    static final byte INT = 1;
+    static final byte FLOAT = 2;
+    static final byte STRING = 3;
+    static final byte ANY = 4;
+
+    // the types of every stack slot on entry to each pc; null when the pc is unreachable
+    final byte[][] states;
+    // the type of every variable slot, joined over every store to it
+    final byte[] variables;
+    final boolean verified;
+    final int maxDepth;
+    final Token conflict;
+
+    private Verifier(byte[][] states, byte[] variables, boolean verified, int maxDepth, Token conflict) {
+        this.states = states;
+        this.variables = variables;
+        this.verified = verified;
+        this.maxDepth = maxDepth;
+        this.conflict = conflict;
+    }
+
+    static int needs(int op) {
+        if (op >= Opcodes.FIRST_EXTENSION) return StandardInstructions.extension(op).pops();
+        return switch (op) {
+            case Opcodes.PUSH, Opcodes.PUSH_INT, Opcodes.CLEAR, Opcodes.READLN, Opcodes.READINT, Opcodes.READALL, Opcodes.GV, Opcodes.CALL, Opcodes.RET, Opcodes.HALT, Opcodes.PROF -> 0;
+            case Opcodes.PRINT, Opcodes.DUP, Opcodes.SV, Opcodes.TEE, Opcodes.ADDK, Opcodes.JEQK, Opcodes.JNEK, Opcodes.JLTK, Opcodes.JGTK -> 1;
+            default -> 2;
+        };
+    }
+
+    private static int depthAfter(int op, int depth) {
+        if (op >= Opcodes.FIRST_EXTENSION) return depth - StandardInstructions.extension(op).pops() + StandardInstructions.extension(op).pushes();
+        return switch (op) {
+            case Opcodes.PUSH, Opcodes.PUSH_INT, Opcodes.DUP, Opcodes.READALL, Opcodes.GV -> depth + 1;
+            case Opcodes.READLN, Opcodes.READINT -> depth + 2;
+            case Opcodes.PRINT, Opcodes.SV, Opcodes.ADD, Opcodes.SUB, Opcodes.MUL, Opcodes.DIV, Opcodes.MOD -> depth - 1;
+            case Opcodes.ADDK, Opcodes.TEE, Opcodes.CALL, Opcodes.RET, Opcodes.HALT, Opcodes.PROF, Opcodes.JEQK, Opcodes.JNEK, Opcodes.JLTK, Opcodes.JGTK -> depth;
+            case Opcodes.CLEAR -> 0;
+            default -> depth - 2;
+        };
+    }
+
+    private static byte arithmetic(int op, byte a, byte b) {
+        if (a == INT && b == INT) return INT;
+        if ((a == INT || a == FLOAT) && (b == INT || b == FLOAT)) return FLOAT;
+        if (op == Opcodes.ADD && a == STRING && b == STRING) return STRING;
+        if (op == Opcodes.MUL && a == STRING && b == INT) return STRING;
+        return ANY;
+    }
+
+    static byte @NotNull [] transfer(int[] code, int pc, byte[] in, Object[] constants, byte[] variables) {
+        var op = Opcodes.base(code[pc]);
+        var d = in.length;
+        var out = Arrays.copyOf(in, depthAfter(op, d));
+        if (op >= Opcodes.FIRST_EXTENSION) {
+            for (int i = d - StandardInstructions.extension(op).pops(); i < out.length; i++) out[i] = ANY;
+            return out;
+        }
+        switch (op) {
+            case Opcodes.PUSH_INT -> out[d] = INT;
+            case Opcodes.PUSH -> out[d] = constants[code[pc + 1]] instanceof String ? STRING : ANY;
+            case Opcodes.DUP -> out[d] = in[d - 1];
+            case Opcodes.GV -> out[d] = variables[code[pc + 1]];
+            case Opcodes.READALL -> out[d] = STRING;
+            case Opcodes.READLN, Opcodes.READINT -> {
+                out[d] = op == Opcodes.READLN ? STRING : INT;
+                out[d + 1] = INT;
+            }
+            case Opcodes.ADD, Opcodes.SUB, Opcodes.MUL, Opcodes.DIV, Opcodes.MOD -> out[d - 2] = arithmetic(op, in[d - 2], in[d - 1]);
+            case Opcodes.ADDK -> out[d - 1] = in[d - 1] == INT || in[d - 1] == FLOAT ? in[d - 1] : ANY;
+            default -> {
+            }
+        }
+        return out;
+    }
+
+    // variable types are flow-insensitive, so the stack dataflow is rerun until no store widens a slot's type
+    static @NotNull Verifier verify(int[] code, Object[] constants, Token[] sites, int vars) throws SalaException {
+        var ret = strayReturn(code);
+        if (ret != -1) throw new SalaException(sites[ret].err("'ret' outside of an instruction definition"));
+
+        var variables = new byte[vars];
+        Arrays.fill(variables, INT);
+        Verifier verifier;
+        do {
+            verifier = verify(code, constants, sites, variables);
+        } while (verifier == null);
+        return verifier;
+    }
+
+    // the pc of a ret the main code can reach without making a call, or -1; only a call pushes the frame a ret pops
+    static int strayReturn(int[] code) {
+        var seen = new boolean[code.length];
+        var work = new ArrayDeque<Integer>();
+        work.push(0);
+        while (!work.isEmpty()) {
+            int pc = work.pop();
+            if (pc >= code.length || seen[pc]) continue;
+            seen[pc] = true;
+            var op = Opcodes.base(code[pc]);
+            var width = Opcodes.width(op);
+            // a call comes back to the instruction after it, so its body is never part of this walk
+            switch (op) {
+                case Opcodes.RET -> {
+                    return pc;
+                }
+                case Opcodes.HALT -> {
+                }
+                case Opcodes.J -> work.push(code[pc + width - 1]);
+                default -> {
+                    if (Opcodes.isJump(op)) work.push(code[pc + width - 1]);
+                    work.push(pc + width);
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static Verifier verify(int[] code, Object[] constants, Token[] sites, byte[] variables) throws SalaException {
+        // calls are followed context-insensitively: a body's ret flows back to every site that calls it
+        var returns = new TreeMap<Integer, List<Integer>>();
+        for (int pc = 0; pc < code.length; pc += Opcodes.width(code[pc])) {
+            if (code[pc] == Opcodes.CALL) returns.computeIfAbsent(code[pc + 1], _ -> new ArrayList<>()).add(pc + 2);
+        }
+
+        var states = new byte[code.length + 1][];
+        var work = new PriorityQueue<Integer>();
+        var maxDepth = 0;
+        var underflow = -1;
+        Token conflict = null;
+
+        states[0] = new byte[0];
+        work.add(0);
+
+        while (!work.isEmpty()) {
+            int pc = work.poll();
+            if (pc == code.length) continue;
+            var op = Opcodes.base(code[pc]);
+            var in = states[pc];
+            if (in.length < needs(op)) {
+                if (underflow == -1 || pc < underflow) underflow = pc;
+                continue;
+            }
+
+            if (op == Opcodes.SV || op == Opcodes.TEE) {
+                var slot = code[pc + 1];
+                if (variables[slot] != in[in.length - 1] && variables[slot] != ANY) {
+                    variables[slot] = ANY;
+                    return null;
+                }
+            }
+
+            var out = transfer(code, pc, in, constants, variables);
+            maxDepth = Math.max(maxDepth, Math.max(in.length, out.length));
+
+            var width = Opcodes.width(op);
+            int[] successors = switch (op) {
+                case Opcodes.J, Opcodes.CALL -> new int[]{code[pc + width - 1]};
+                case Opcodes.RET -> {
+                    var callers = returns.floorEntry(pc);
+                    yield callers == null ? new int[0] : callers.getValue().stream().mapToInt(Integer::intValue).toArray();
+                }
+                case Opcodes.HALT -> new int[0];
+                default -> Opcodes.isJump(op) ? new int[]{code[pc + width - 1], pc + width} : new int[]{pc + width};
+            };
+
+            for (int to : successors) {
+                var existing = states[to];
+                if (existing == null) {
+                    states[to] = out;
+                    work.add(to);
+                } else if (existing.length != out.length) {
+                    if (conflict == null) conflict = sites[pc];
+                } else {
+                    var merged = existing;
+                    for (int i = 0; i < out.length; i++) {
+                        if (merged[i] != out[i] && merged[i] != ANY) {
+                            if (merged == existing) merged = existing.clone();
+                            merged[i] = ANY;
+                        }
+                    }
+                    if (merged != existing) {
+                        states[to] = merged;
+                        work.add(to);
+                    }
+                }
+            }
+        }
+
+        if (conflict != null) return new Verifier(states, variables, false, maxDepth, conflict);
+        if (underflow != -1) throw new SalaException(sites[underflow].err("stack underflow"));
+        return new Verifier(states, variables, true, maxDepth, null);
+    }
+}
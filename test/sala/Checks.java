@@ -0,0 +1,983 @@
+package sala;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// regression checks for behaviour that's easy to break without noticing, run by gradle check
+final class Checks {
+    public static void main(String[] args) throws Exception {
+        programsRun();
+        stackKeepsSlotTypes();
+        compiledProgramsMatch();
+        peepholeFuses();
+        verifierRejects();
+        quickenedSitesStayCorrect();
+        lexerSlicesLines();
+        sourcesDecode();
+        compiledFilesRoundTrip();
+        bufferedOutputFlushes();
+        inputReads();
+        programsAreShared();
+        batchesRunInOrder();
+        variablesHoldValues();
+        definitionsInlineOrCall();
+        profilesCount();
+        schedulerIsFair();
+        packsAddInstructions();
+        constantsFold();
+        registerBackendMatches();
+        editsRelexChangedLines();
+        replCarriesState();
+        parallelLexerMatches();
+        lazyStringsKeepTheirCharacters();
+        metricsCountRuns();
+        fuelCountsSourceInstructions();
+        stackPeakIsObserved();
+        corruptProgramFilesAreRejected();
+        strayReturnsAreRejected();
+        failedCacheStoresCleanUp();
+        compiledProgramsRead();
+        sitesDontKeepSource();
+        flushFailureKeepsRunError();
+        batchSurvivesErrors();
+        System.out.println("all checks passed");
+    }
+
+    private static void check(boolean condition, String message, Object... args) {
+        if (!condition) throw new AssertionError(String.format(message, args));
+    }
+
+    private static Program compile(String source) throws SalaException {
+        return new Compiler().optimize(false).compile(Interpreter.lexLines(source));
+    }
+
+    private static SalaInput input(String text) {
+        return new BufferedSalaInput(Channels.newChannel(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    // what a program prints when it's run on the stack
+    private static String run(Program program, String input) throws SalaException {
+        var out = new StringBuilder();
+        new Execution(program, out::append, input(input)).run();
+        return out.toString();
+    }
+
+    // what a program prints when it's translated to registers and run there
+    private static String runRegisters(Program program, String input) throws SalaException {
+        var out = new StringBuilder();
+        new Interpreter(out::append, input(input)).backend(Interpreter.Backend.REGISTER).interpret(program);
+        return out.toString();
+    }
+
+    // what a program prints when it's compiled to a class and run with input on stdin
+    private static String runCompiled(Program program, String input) throws Exception {
+        var bytes = AotCompiler.compile(program, "Compiled");
+        var loader = new ClassLoader(Checks.class.getClassLoader()) {
+            @Override
+            protected Class<?> findClass(String name) throws ClassNotFoundException {
+                if (!name.equals("Compiled")) throw new ClassNotFoundException(name);
+                return defineClass(name, bytes, 0, bytes.length);
+            }
+        };
+        var stdin = System.in;
+        var stdout = System.out;
+        var out = new ByteArrayOutputStream();
+        try {
+            System.setIn(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)));
+            System.setOut(new PrintStream(out, true, StandardCharsets.UTF_8));
+            loader.loadClass("Compiled").getMethod("run").invoke(null);
+        } finally {
+            System.setIn(stdin);
+            System.setOut(stdout);
+        }
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    // the opcode stream runs arithmetic, jumps and strings the way the token interpreter did
+    private static void programsRun() throws SalaException {
+        var program = compile("""
+                push 3
+                :loop
+                dup
+                print
+                push 1
+                sub
+                dup
+                push 0
+                jgt loop
+                print
+                push 7
+                push 2
+                mod
+                print
+                push 7
+                push 2
+                div
+                print
+                push "ab"
+                push 3
+                mul
+                push "c"
+                add
+                print
+                """);
+        var output = run(program, "");
+        check(output.equals("321013abababc"), "expected 321013abababc but got %s", output);
+    }
+
+    // each slot keeps its own type as the stack grows past its first capacity
+    private static void stackKeepsSlotTypes() {
+        var stack = new SalaStack(1);
+        for (int i = 0; i < 100; i++) {
+            switch (i % 3) {
+                case 0 -> stack.pushInt(i);
+                case 1 -> stack.pushFloat(i + 0.5f);
+                default -> stack.push("s" + i);
+            }
+        }
+        stack.dup();
+        check(stack.size() == 101 && stack.hasAmount(101) && !stack.hasAmount(102), "expected 101 values but got %d", stack.size());
+        check(stack.pop().equals(stack.peek()), "expected dup to copy the top value");
+        for (int i = 99; i >= 0; i--) {
+            var value = stack.pop();
+            Object expected = switch (i % 3) {
+                case 0 -> i;
+                case 1 -> i + 0.5f;
+                default -> "s" + i;
+            };
+            check(value.equals(expected), "expected %s at depth %d but got %s", expected, i, value);
+        }
+        check(stack.empty(), "expected the stack to be empty");
+    }
+
+    // a compiled program prints what the interpreter prints, with ints kept unboxed and variables in locals
+    private static void compiledProgramsMatch() throws Exception {
+        var program = compile("""
+                .var 2
+                push 0
+                sv 0
+                push 0
+                sv 1
+                :loop
+                gv 1
+                gv 0
+                dup
+                mul
+                add
+                sv 1
+                gv 0
+                push 1
+                add
+                dup
+                sv 0
+                push 5
+                jlt loop
+                gv 1
+                print
+                push 10
+                push 3
+                mod
+                print
+                push "ab"
+                push 2
+                mul
+                print
+                """);
+        var expected = run(program, "");
+        var output = runCompiled(program, "");
+        check(expected.equals("301abab") && output.equals(expected), "expected the compiled program to print %s but it printed %s", expected, output);
+    }
+
+    // the peephole pass fuses a constant add, a stored dup and a compare with a constant, without changing the output
+    private static void peepholeFuses() throws SalaException {
+        var source = """
+                .var 1
+                push 0
+                :loop
+                push 1
+                add
+                dup
+                sv 0
+                dup
+                push 5
+                jlt loop
+                print
+                gv 0
+                print
+                """;
+        var optimized = new Compiler().optimize(true).compile(Interpreter.lexLines(source));
+        for (int op : new int[]{Opcodes.ADDK, Opcodes.TEE, Opcodes.JLTK}) {
+            check(uses(optimized, op), "expected the optimized program to use %s", Opcodes.name(op));
+        }
+        var output = run(optimized, "");
+        check(output.equals("55") && output.equals(run(compile(source), "")), "expected 55 from both programs but got %s", output);
+    }
+
+    private static boolean uses(Program program, int opcode) {
+        for (int pc = 0; pc < program.code.length; pc += Opcodes.width(program.code[pc])) {
+            if (Opcodes.base(program.code[pc]) == opcode) return true;
+        }
+        return false;
+    }
+
+    // loading a program that pops more than it pushed fails, and one whose depth at a label depends on the path runs
+    // with checks instead
+    private static void verifierRejects() throws SalaException {
+        try {
+            compile("push 1\nadd\nprint\n");
+            throw new AssertionError("a program that underflows the stack should fail to load");
+        } catch (SalaException e) {
+            check(e.getMessage().contains("line 2") && e.getMessage().contains("stack underflow"), "expected an underflow on line 2 but got %s", e.getMessage());
+        }
+        try {
+            compile("push 1\npush 2\njlt skip\nprint\n:skip\n");
+            throw new AssertionError("an underflow on a path that's only taken sometimes should fail to load");
+        } catch (SalaException e) {
+            check(e.getMessage().contains("stack underflow"), "expected an underflow but got %s", e.getMessage());
+        }
+
+        var program = compile("push 1\npush 1\npush 2\njlt skip\npush 3\n:skip\nprint\n");
+        check(!program.verified, "expected a path-dependent depth to leave the program unverified");
+        check(run(program, "").equals("1"), "expected the unverified program to still run");
+
+        program = compile("push 1\npush 2\nadd\nprint\n");
+        check(program.verified && program.maxStack == 2, "expected a verified program with a max stack of 2 but got %d", program.maxStack);
+    }
+
+    // sites the verifier proves see ints are quickened at load, the rest as they run, and either way a site that
+    // later sees other types still gets them right
+    private static void quickenedSitesStayCorrect() throws SalaException {
+        check(compile("push 1\npush 2\nadd\nprint\n").code[4] == Opcodes.ADD_II, "expected an add of two int constants to start out quickened");
+
+        // variable 0 holds an int and then a string, so the add and the mul start out generic
+        var program = compile("""
+                .var 2
+                push 3
+                sv 1
+                :loop
+                gv 0
+                gv 0
+                add
+                gv 0
+                push 2
+                mul
+                print
+                print
+                push "ab"
+                sv 0
+                gv 1
+                push 1
+                sub
+                dup
+                sv 1
+                push 0
+                jgt loop
+                """);
+        var code = program.code.clone();
+        var output = run(program, "");
+        check(output.equals("00" + "ab".repeat(8)), "expected 00 and then string results but got %s", output);
+        check(Arrays.equals(code, program.code), "expected quickening to leave the program's code alone");
+    }
+
+    // tokens are slices of the one source text, with escapes only copied out for the strings that have them
+    private static void lexerSlicesLines() throws SalaException {
+        var lines = Interpreter.lexLines(".var 1\n\n  push \"a b\" ; not a token\n:loop\r\npush \"x\\ny\"\njlt loop 12\n");
+        check(lines.length == 6 && lines[1].length == 0, "expected 6 lines with an empty second one but got %d", lines.length);
+        String[][] expected = {{"DIRECTIVE var", "NUMBER 1"}, {}, {"WORD push", "STRING a b"}, {"LABEL loop"}, {"WORD push", "STRING x\ny"}, {"WORD jlt", "WORD loop", "NUMBER 12"}};
+        for (int ln = 0; ln < expected.length; ln++) {
+            var tokens = new String[lines[ln].length];
+            for (int i = 0; i < tokens.length; i++) tokens[i] = lines[ln][i].getType() + " " + lines[ln][i].getLiteral();
+            check(Arrays.equals(tokens, expected[ln]), "expected %s on line %d but got %s", Arrays.toString(expected[ln]), ln + 1, Arrays.toString(tokens));
+        }
+        check(lines[2][1].getStart() == 7 && lines[2][1].getLine() == 2 && lines[2][1].is("a b"), "expected the string at line 3, col 8 but got %s", lines[2][1]);
+    }
+
+    // mapped and streamed sources decode the same, including a character split across two of read's chunks and an
+    // empty file
+    private static void sourcesDecode() throws IOException {
+        var text = "x".repeat((1 << 16) - 1) + "€ push \"é\"\n";
+        var dir = Files.createTempDirectory("sala-checks");
+        try {
+            var file = Files.writeString(dir.resolve("source.sala"), text);
+            check(SourceLoader.map(file).toString().equals(text), "expected a mapped source to decode to its text");
+            var streamed = SourceLoader.read(Channels.newChannel(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8))));
+            check(streamed.toString().equals(text), "expected a streamed source to decode to its text");
+
+            var empty = Files.writeString(dir.resolve("empty.sala"), "");
+            check(SourceLoader.map(empty).isEmpty(), "expected an empty source to decode to nothing");
+        } finally {
+            delete(dir);
+        }
+    }
+
+    // a program read back from a .salac file is the program that was written, and the cache hands it back for the
+    // same source and settings only
+    private static void compiledFilesRoundTrip() throws Exception {
+        var source = """
+                .var 1
+                instr twice :
+                :again
+                dup
+                add
+                end
+                push "n="
+                print
+                push 3
+                :loop
+                twice
+                dup
+                sv 0
+                dup
+                push 40
+                jlt loop
+                gv 0
+                print
+                """;
+        var program = new Compiler().compile(Interpreter.lexLines(source));
+        var out = new ByteArrayOutputStream();
+        ProgramFile.write(program, out);
+        var read = ProgramFile.read(new ByteArrayInputStream(out.toByteArray()));
+
+        check(Arrays.equals(read.code, program.code) && Arrays.equals(read.constants, program.constants) && read.labels.equals(program.labels) && read.vars == program.vars,
+                "expected the program read back to have the same code, constants, labels and variables");
+        for (int pc = 0; pc < program.sites.length; pc++) {
+            var a = program.sites[pc];
+            var b = read.sites[pc];
+            check(a == null ? b == null : b != null && a.getType() == b.getType() && a.is(b.getLiteral()) && a.getStart() == b.getStart() && a.getLine() == b.getLine(),
+                    "expected the same site at pc %d but got %s and %s", pc, a, b);
+        }
+        check(run(read, "").equals("n=48"), "expected the program read back to print n=48 but got %s", run(read, ""));
+
+        var dir = Files.createTempDirectory("sala-checks");
+        try {
+            var cache = new CompileCache(dir);
+            var bytes = ByteBuffer.wrap(source.getBytes(StandardCharsets.UTF_8));
+            check(cache.lookup(bytes, new Compiler()) == null, "expected an empty cache to miss");
+            cache.load(bytes, new Compiler());
+            check(cache.lookup(bytes, new Compiler()) != null, "expected the cache to hit after a load");
+            check(cache.lookup(bytes, new Compiler().optimize(false)) == null, "expected the cache to miss for other settings");
+        } finally {
+            delete(dir);
+        }
+    }
+
+    // every policy writes the same bytes in the end, and only differs in when
+    private static void bufferedOutputFlushes() throws IOException {
+        var values = new Object[]{Integer.MIN_VALUE, "\n", -7, 0, "a line\n", "ünïcödé ".repeat(5), 123456789, "end\n"};
+        var expected = new StringBuilder();
+        for (var value : values) expected.append(value);
+
+        for (var policy : BufferedSalaOutput.FlushPolicy.values()) {
+            var bytes = new ByteArrayOutputStream();
+            var out = new BufferedSalaOutput(Channels.newChannel(bytes), 16, policy);
+            out.print(values[0]);
+            out.print(values[1]);
+            var afterNewline = bytes.size();
+            for (int i = 2; i < values.length; i++) out.print(values[i]);
+            var beforeFlush = bytes.size();
+            out.close();
+
+            var written = bytes.toString(StandardCharsets.UTF_8);
+            check(written.contentEquals(expected), "expected %s to write everything printed but got %s", policy, written);
+            check(out.bytesWritten() == bytes.size(), "expected %s to count %d bytes but counted %d", policy, bytes.size(), out.bytesWritten());
+            switch (policy) {
+                case NEWLINE -> check(afterNewline == 12, "expected a newline to be written straight away");
+                case SIZE -> check(afterNewline == 0 && beforeFlush > 0, "expected only a full buffer to be written");
+                case EXIT -> check(beforeFlush == 0, "expected nothing to be written before the end");
+            }
+        }
+    }
+
+    // one buffered reader serves every read instruction, through lines longer than its buffer and bad numbers
+    private static void inputReads() throws SalaException {
+        var longLine = "x".repeat(300);
+        var text = "first\r\n  -12 \nnope\n" + longLine + "\n2147483648\nrest ü\nlast";
+        var in = new BufferedSalaInput(Channels.newChannel(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8))), 16);
+        check("first".equals(in.get()), "expected the first line without its line ending");
+        check(in.getInt() == -12, "expected -12 from a padded number");
+        try {
+            in.getInt();
+            throw new AssertionError("expected a word not to be read as an int");
+        } catch (NumberFormatException _) {
+        }
+        check(longLine.equals(in.get()), "expected a line longer than the buffer in one piece");
+        try {
+            in.getInt();
+            throw new AssertionError("expected a number past the int range not to be read as an int");
+        } catch (NumberFormatException _) {
+        }
+        check("rest ü\nlast".equals(in.getAll()), "expected readall to return the rest of the input");
+        check(in.get() == null && in.getInt() == SalaInput.EOF, "expected the end of the input");
+
+        var output = run(compile("readint\nprint\nprint\nreadln\nprint\nprint\nreadint\nprint\nprint\n"), "5\nword\n");
+        check(output.equals("151word00"), "expected 151word00 but got %s", output);
+        try {
+            run(compile("readint\n"), "five\n");
+            throw new AssertionError("reading a word as an int should fail");
+        } catch (SalaException e) {
+            check(e.getMessage().contains("input is not an integer"), "expected a bad integer error but got %s", e.getMessage());
+        }
+    }
+
+    // a program is shared by executions running at once, each with its own stack, variables and quickened code
+    private static void programsAreShared() throws Exception {
+        var program = compile("""
+                .var 1
+                :loop
+                gv 0
+                push 1
+                add
+                dup
+                sv 0
+                push 2000
+                jlt loop
+                gv 0
+                print
+                push "a"
+                push "b"
+                add
+                print
+                """);
+        var code = program.code.clone();
+        try (var executor = Executors.newFixedThreadPool(8)) {
+            var outputs = new ArrayList<Future<String>>();
+            for (int i = 0; i < 32; i++) outputs.add(executor.submit(() -> run(program, "")));
+            for (var output : outputs) check(output.get().equals("2000ab"), "expected 2000ab from every execution but got %s", output.get());
+        }
+        check(Arrays.equals(code, program.code), "expected running the program to leave its code alone");
+    }
+
+    // a directory or a manifest lists the scripts and their inputs, and results come back in that order whichever
+    // finishes first
+    private static void batchesRunInOrder() throws Exception {
+        var dir = Files.createTempDirectory("sala-checks");
+        try {
+            Files.writeString(dir.resolve("a.sala"), ".var 1\n:loop\ngv 0\npush 1\nadd\ndup\nsv 0\npush 200000\njlt loop\ngv 0\nprint\n");
+            Files.writeString(dir.resolve("b.sala"), "readln\nprint\nprint\n");
+            Files.writeString(dir.resolve("b.in"), "from b.in\n");
+            Files.writeString(dir.resolve("c.sala"), "push 1\nadd\n");
+            Files.writeString(dir.resolve("notes.txt"), "not a script");
+            Files.writeString(dir.resolve("manifest"), "; a comment\nc.sala\nb.sala a.sala\n");
+
+            var jobs = BatchRunner.jobs(dir);
+            check(jobs.equals(List.of(new BatchRunner.Job(dir.resolve("a.sala"), null), new BatchRunner.Job(dir.resolve("b.sala"), dir.resolve("b.in")), new BatchRunner.Job(dir.resolve("c.sala"), null))),
+                    "expected the directory's three scripts with b's input but got %s", jobs);
+            var listed = BatchRunner.jobs(dir.resolve("manifest"));
+            check(listed.size() == 2 && listed.get(1).script().equals(dir.resolve("b.sala")) && dir.resolve("a.sala").equals(listed.get(1).input()),
+                    "expected the manifest's two scripts relative to it but got %s", listed);
+
+            for (int threads : new int[]{0, 4}) {
+                var results = new ArrayList<BatchRunner.Result>();
+                var summary = new BatchRunner(threads, true).run(jobs, results::add);
+                check(results.get(0).output().equals("200000") && results.get(1).output().equals("1from b.in") && results.get(2).failed(),
+                        "expected a, b and c's results in order but got %s", results);
+                check(summary.scripts() == 3 && summary.failures() == 1 && summary.p99Nanos() >= summary.p50Nanos() && summary.p50Nanos() > 0,
+                        "expected 3 scripts and 1 failure but got %s", summary);
+            }
+        } finally {
+            delete(dir);
+        }
+    }
+
+    // variables start out as 0, hold whatever type is stored in them, and only exist when declared
+    private static void variablesHoldValues() throws SalaException {
+        var output = run(compile(".var 3\ngv 2\nprint\npush \"s\"\nsv 1\npush 4\nsv 2\ngv 1\ngv 2\nmul\nprint\ngv 0\nprint\n"), "");
+        check(output.equals("0ssss0"), "expected 0ssss0 but got %s", output);
+        try {
+            compile(".var 2\ngv 2\nprint\n");
+            throw new AssertionError("reading an undeclared variable should fail to compile");
+        } catch (SalaException e) {
+            check(e.getMessage().contains("variable 2 does not exist"), "expected an undeclared variable error but got %s", e.getMessage());
+        }
+    }
+
+    // small instructions without labels are inlined and the rest are called, and either way they run the same
+    private static void definitionsInlineOrCall() throws SalaException {
+        var body = "dup\nadd\npush 1\nadd\n";
+        var use = "push 3\nstep\nstep\nprint\n";
+        var inlined = compile("instr step :\n" + body + "end\n" + use);
+        var called = compile("instr step :\n:top\n" + body + "end\n" + use);
+        check(!uses(inlined, Opcodes.CALL) && uses(called, Opcodes.CALL), "expected only the definition with a label to be called");
+        check(run(inlined, "").equals("15") && run(called, "").equals("15"), "expected both programs to print 15");
+
+        try {
+            compile("instr outer :\ninstr inner :\nend\nend\n");
+            throw new AssertionError("a definition inside another should fail to compile");
+        } catch (SalaException e) {
+            check(e.getMessage().contains("cannot be defined inside"), "expected a nested definition error but got %s", e.getMessage());
+        }
+    }
+
+    // the profile counts every instruction the program ran, once, and the jumps back to the top of its loop
+    private static void profilesCount() throws Exception {
+        var profiler = new Profiler();
+        var output = new StringBuilder();
+        new Interpreter(output::append, () -> null).profile(profiler).interpret(compile("push 0\n:loop\npush 1\nadd\ndup\npush 5\njlt loop\nprint\n"));
+        check(output.toString().equals("5"), "expected a profiled program to still print 5 but got %s", output);
+
+        var report = new ByteArrayOutputStream();
+        profiler.report(new PrintStream(report, true, StandardCharsets.UTF_8));
+        var text = report.toString(StandardCharsets.UTF_8);
+        check(text.startsWith("profile: 27 instructions"), "expected 27 instructions in the profile but got %s", text);
+        check(text.matches("(?s).*\\n\\s+5\\s+\\d+\\s+[\\d.]+%\\s+jlt\\n.*"), "expected jlt to run 5 times but got %s", text);
+        check(text.matches("(?s).*hot loops.*\\n\\s+4\\s+:loop .*"), "expected 4 jumps back to :loop but got %s", text);
+
+        var dir = Files.createTempDirectory("sala-checks");
+        try {
+            var collapsed = dir.resolve("collapsed.txt");
+            profiler.writeCollapsed(collapsed);
+            var lines = Files.readAllLines(collapsed);
+            check(!lines.isEmpty() && lines.stream().allMatch(line -> line.matches("main;\\S+ \\d+")), "expected collapsed stacks under main but got %s", lines);
+        } finally {
+            delete(dir);
+        }
+    }
+
+    // a task with three times the priority runs three times the instructions while both are running, and a task that
+    // runs out of fuel fails with that
+    private static void schedulerIsFair() throws Exception {
+        var loop = compile(".var 1\n:loop\ngv 0\npush 1\nadd\nsv 0\npush 0\npush 1\njlt loop\n");
+        var low = new Execution(loop, _ -> {}, () -> null).fuel(1_000_000);
+        var high = new Execution(loop, _ -> {}, () -> null).fuel(300_000);
+        try (var scheduler = new Scheduler(1, 1000)) {
+            // the worker may get a few quanta into the first task before the second arrives
+            var lowTask = scheduler.submit(low, 1);
+            // runs on the worker between quanta, so it sees how far the other task got
+            var lowRan = scheduler.submit(high, 3).completion().handle((_, e) -> {
+                check(e instanceof SalaException && e.getMessage().contains("out of fuel after 300000 instructions"), "expected the task to run out of fuel but got %s", e);
+                return low.executed();
+            });
+            check(lowRan.get() >= 80_000 && lowRan.get() <= 200_000, "expected the low priority task to run about 100000 instructions but it ran %d", lowRan.get());
+            lowTask.completion().handle((_, _) -> null).join();
+        }
+        check(low.executed() == 1_000_000 && !low.finished(), "expected the low priority task to use all of its fuel");
+    }
+
+    // installed by test/META-INF/services, the way a jar on the classpath would be
+    public static final class Swap implements InstructionPack {
+        @Override
+        public @NotNull List<NativeInstruction> instructions() {
+            return List.of(new NativeInstruction("swap", 2, 2, (stack, _) -> {
+                var top = stack.pop();
+                var under = stack.pop();
+                stack.push(top);
+                stack.push(under);
+            }));
+        }
+    }
+
+    // a pack's instructions compile and run like built in ones, are verified by what they pop, take no operands and
+    // are stored by name in .salac files
+    private static void packsAddInstructions() throws Exception {
+        var program = compile("push 1\npush \"a\"\nswap\nprint\nprint\n");
+        check(run(program, "").equals("1a"), "expected swap to swap the top two values but got %s", run(program, ""));
+
+        for (var source : new String[]{"push 1\nswap\n", "push 1\npush 2\nswap 3\n", "push\n"}) {
+            try {
+                compile(source);
+                throw new AssertionError("expected " + source + " to fail to compile");
+            } catch (SalaException _) {
+            }
+        }
+
+        var out = new ByteArrayOutputStream();
+        ProgramFile.write(program, out);
+        check(out.toString(StandardCharsets.ISO_8859_1).contains("swap"), "expected the .salac file to name swap");
+        check(run(ProgramFile.read(new ByteArrayInputStream(out.toByteArray())), "").equals("1a"), "expected swap to survive a round trip");
+    }
+
+    // constant arithmetic is folded before it runs, code after an unconditional jump is dropped, and anything that
+    // would fail is left to fail at runtime
+    private static void constantsFold() throws SalaException {
+        var source = "push 2\npush 3\nmul\npush 4\nadd\nprint\npush \"ab\"\npush 2\nmul\nprint\npush 0\npush 0\nj end\npush \"gone\"\nprint\n:end\n";
+        var optimized = new Compiler().compile(Interpreter.lexLines(source));
+        check(!uses(optimized, Opcodes.MUL) && !uses(optimized, Opcodes.ADD) && !uses(optimized, Opcodes.ADDK), "expected the arithmetic to be folded");
+        check(optimized.code.length < compile(source).code.length && !Arrays.asList(optimized.constants).contains("gone") && Arrays.asList(compile(source).constants).contains("gone"), "expected the code after the jump to be dropped");
+        check(run(optimized, "").equals("10abab"), "expected the folded program to print 10abab but got %s", run(optimized, ""));
+
+        var division = new Compiler().compile(Interpreter.lexLines("push 1\npush 0\ndiv\nprint\n"));
+        check(uses(division, Opcodes.DIV), "expected a division by zero to be left to run");
+    }
+
+    // the register backend prints what the stack backend prints, for numbers, strings, variables and input
+    private static void registerBackendMatches() throws SalaException {
+        var sources = new String[]{
+                "push 0\n:loop\npush 1\nadd\ndup\npush 5\njlt loop\nprint\n",
+                ".var 2\npush 7\nsv 0\ngv 0\ngv 0\nmul\nsv 1\ngv 1\nprint\ngv 1\npush 5\nmod\nprint\ngv 0\npush 2\ndiv\nprint\n",
+                ".var 1\npush 3\nsv 0\n:loop\npush \"ab\"\ngv 0\nmul\nprint\ngv 0\npush 1\nsub\ndup\nsv 0\npush 0\njgt loop\n",
+                "readln\nprint\nprint\nreadint\nprint\nprint\nreadall\nprint\n",
+                "push \"a\"\npush \"b\"\njeq no\npush 1\nprint\n:no\npush 2\nprint\n",
+        };
+        for (var source : sources) {
+            var program = new Compiler().compile(Interpreter.lexLines(source));
+            check(RegisterProgram.translate(program) != null, "expected %s to run on registers", source);
+            var stack = run(program, "line\n42\nrest\n");
+            var registers = runRegisters(program, "line\n42\nrest\n");
+            check(registers.equals(stack), "expected %s to print %s on registers but it printed %s", source, stack, registers);
+        }
+    }
+
+    // a new version of a program only has its changed lines lexed, and every line it takes from the cache is moved to
+    // where it now is, so the tokens match lexing the new version from scratch
+    private static void editsRelexChangedLines() throws SalaException {
+        var cache = new LineCache();
+        cache.lex("push 1\npush 2\nadd\nprint\n");
+        check(cache.lexed() == 4 && cache.reused() == 0, "expected 4 lines lexed but got %d lexed, %d reused", cache.lexed(), cache.reused());
+
+        var edited = "push 0\npop\npush 1\npush 3\nadd\nprint\npush 1\n";
+        var lines = cache.lex(edited);
+        check(cache.lexed() == 3 && cache.reused() == 4, "expected 3 lines lexed and 4 reused but got %d, %d", cache.lexed(), cache.reused());
+        var fresh = Interpreter.lexLines(edited);
+        check(lines.length == fresh.length, "expected %d lines but got %d", fresh.length, lines.length);
+        for (int ln = 0; ln < fresh.length; ln++) {
+            check(lines[ln].length == fresh[ln].length, "expected %d tokens on line %d but got %d", fresh[ln].length, ln + 1, lines[ln].length);
+            for (int i = 0; i < fresh[ln].length; i++)
+                check(lines[ln][i].toString().equals(fresh[ln][i].toString()) && lines[ln][i].getLine() == ln,
+                        "expected %s on line %d but got %s", fresh[ln][i], ln + 1, lines[ln][i]);
+        }
+    }
+
+    // entries carry the stack, variables and instructions over to the next, and a failing one only clears the stack
+    private static void replCarriesState() throws IOException {
+        var console = new ByteArrayOutputStream();
+        var entries = ".var 1\npush 4\nsv 0\ninstr twice :\ndup\nadd\nend\npush 5\ntwice\nprint\npush 7\npush 0\ndiv\n?\npush 6\ntwice\ngv 0\nadd\nprint\n";
+        new Repl(new BufferedReader(new StringReader(entries)), new PrintStream(console, true, StandardCharsets.UTF_8)).run();
+        var out = console.toString(StandardCharsets.UTF_8);
+        check(out.contains("10\n") && out.contains("(stack cleared)\n> stack [], variables [4]") && out.contains("16\n"),
+                "expected 10, a cleared stack and then 16 but got %s", out);
+    }
+
+    // a source big enough to be lexed in chunks gives the same tokens, on the same lines and columns, as lexing it
+    // serially, and the error it reports is the first one in the source even when a later chunk has one too
+    private static void parallelLexerMatches() throws SalaException {
+        var text = new StringBuilder();
+        for (int i = 0; text.length() < 2 * ParallelLexer.THRESHOLD; i++) {
+            text.append(":l").append(i).append("\n  push \"s ").append(i).append(" ; x\" ; note\r\n\n.var ").append(i % 9)
+                    .append("\npush ").append(i).append("\njlt l").append(i).append(" $a\n");
+        }
+        var parallel = ParallelLexer.lex(text);
+        var serial = new Interpreter.Lexer(text).lex();
+        check(parallel.length == serial.length, "expected %d lines but got %d", serial.length, parallel.length);
+        for (int ln = 0; ln < serial.length; ln++) {
+            check(Arrays.equals(Arrays.stream(parallel[ln]).map(Token::toString).toArray(), Arrays.stream(serial[ln]).map(Token::toString).toArray()),
+                    "expected %s on line %d but got %s", Arrays.toString(serial[ln]), ln + 1, Arrays.toString(parallel[ln]));
+        }
+
+        var broken = new StringBuilder(text).insert(text.indexOf("\n", text.length() / 3) + 1, "push #\n").append("push #\n");
+        String expected = null, actual = null;
+        try {
+            new Interpreter.Lexer(broken).lex();
+        } catch (SalaException e) {
+            expected = e.getMessage();
+        }
+        try {
+            ParallelLexer.lex(broken);
+        } catch (SalaException e) {
+            actual = e.getMessage();
+        }
+        check(expected != null && expected.equals(actual), "expected %s but got %s", expected, actual);
+    }
+
+    // strings that share a builder each keep their own characters, whichever of them is appended to later, and a loop
+    // of appends prints what appending plain strings would
+    private static void lazyStringsKeepTheirCharacters() throws SalaException {
+        var base = SalaString.concat("a".repeat(SalaString.MIN_LENGTH), "b");
+        var left = SalaString.concat(base, "c");
+        var right = SalaString.concat(base, "d");
+        var both = SalaString.concat(SalaString.repeat(left, 2), SalaString.repeat(SalaString.repeat(right, 2), 3));
+        var a = "a".repeat(SalaString.MIN_LENGTH) + "b";
+        var expected = new String[]{a, a + "c", a + "d", (a + "c").repeat(2) + (a + "d").repeat(6)};
+        var actual = new Object[]{base, left, right, both};
+        for (int i = 0; i < expected.length; i++) {
+            check(SalaString.flatten(actual[i]).equals(expected[i]), "expected string %d to be %d characters ending in %s but got %s", i,
+                    expected[i].length(), expected[i].substring(expected[i].length() - 2), SalaString.flatten(actual[i]));
+        }
+        check(SalaString.concat("x", "y") instanceof String, "expected a short concatenation to stay a plain string");
+
+        var program = new Compiler().compile(Interpreter.lexLines(
+                ".var 1\npush \"\"\nsv 0\npush 0\n:loop\ngv 0\npush \"ab\"\nadd\nsv 0\npush 1\nadd\ndup\npush 5000\njlt loop\ngv 0\npush 2\nmul\nprint\n"));
+        var out = "ab".repeat(10000);
+        check(run(program, "").equals(out), "expected the loop to print %d characters but got %d", out.length(), run(program, "").length());
+        check(runRegisters(program, "").equals(out), "expected the loop to print %d characters on registers but got %d", out.length(), runRegisters(program, "").length());
+    }
+
+    // every run through the interpreter is counted once, on either backend, with the instructions it ran before it ended
+    // and the deepest its stack got; the high water mark only ever rises, so it's checked against a deeper stack than
+    // any run before it reached
+    private static void metricsCountRuns() throws SalaException, IOException {
+        var metrics = SalaMetrics.METRICS;
+        var scripts = metrics.getScriptsRun();
+        var failures = metrics.getScriptsFailed();
+        var instructions = metrics.getInstructionsExecuted();
+        var output = metrics.getOutputBytes();
+
+        var deep = new StringBuilder();
+        for (int i = 0; i < 1000; i++) deep.append("push ").append(i).append('\n');
+        var bytes = new ByteArrayOutputStream();
+        try (var out = new BufferedSalaOutput(Channels.newChannel(bytes))) {
+            new Interpreter(out, input("")).interpret(compile(deep + "print\n"));
+        }
+        new Interpreter(_ -> {}, input("")).backend(Interpreter.Backend.REGISTER).interpret(compile("push 1\npush 2\nadd\nprint\n"));
+        try {
+            new Interpreter(_ -> {}, input("")).interpret(compile("push 1\nprint\npush 1\npush 0\ndiv\n"));
+            check(false, "expected a division by zero to fail");
+        } catch (ArithmeticException _) {
+        }
+
+        check(metrics.getScriptsRun() - scripts == 3, "expected 3 scripts run but got %d", metrics.getScriptsRun() - scripts);
+        check(metrics.getScriptsFailed() - failures == 1, "expected 1 script failed but got %d", metrics.getScriptsFailed() - failures);
+        check(metrics.getInstructionsExecuted() - instructions >= 1001 + 4 + 3, "expected at least %d instructions but got %d",
+                1001 + 4 + 3, metrics.getInstructionsExecuted() - instructions);
+        check(metrics.getStackHighWaterMark() == 1000, "expected a high water mark of 1000 but got %d", metrics.getStackHighWaterMark());
+        check(metrics.getOutputBytes() - output == bytes.size() && bytes.size() == 3, "expected 3 bytes of output but got %d", metrics.getOutputBytes() - output);
+    }
+
+    // quickening an instruction or undoing it runs the instruction again, which must still only use one unit of fuel
+    private static void fuelCountsSourceInstructions() throws SalaException {
+        fuel("push \"a\"\npush \"b\"\nadd\nprint\n", 4);
+        fuel("push 1\npush 2\nadd\nprint\n", 4);
+        fuel("push 1\npush 2\njlt end\n:end\n", 3);
+        // the add runs on ints first, which quickens it, and then on strings, which undoes that
+        fuel("""
+                .var 1
+                push 1
+                push 2
+                :loop
+                add
+                print
+                gv 0
+                push 0
+                jne done
+                push 1
+                sv 0
+                push "a"
+                push "b"
+                push 0
+                push 0
+                j loop
+                :done
+                """, 19);
+    }
+
+    // the metrics report how deep the stack got, not how deep the verifier says it could get
+    private static void stackPeakIsObserved() throws SalaException {
+        var execution = new Execution(compile("push 1\npush 2\npush 3\nadd\nadd\nprint\npush 4\nprint\n"), _ -> {}, () -> null);
+        execution.run();
+        check(execution.stack().peak() == 3, "expected a stack peak of 3 but got %d", execution.stack().peak());
+
+        // the branch that would push four more never runs, and which the verifier has to assume could
+        execution = new Execution(compile("push 1\npush 1\njeq skip\npush 1\npush 2\npush 3\npush 4\n:skip\n"), _ -> {}, () -> null);
+        execution.run();
+        check(execution.stack().peak() == 2, "expected a stack peak of 2 but got %d", execution.stack().peak());
+    }
+
+    // a damaged .salac file has to fail with an IOException or SalaException, which is what lets the compile cache
+    // treat it as a miss, and not with whatever a bad length or index happens to throw
+    private static void corruptProgramFilesAreRejected() throws Exception {
+        var out = new ByteArrayOutputStream();
+        ProgramFile.write(compile("""
+                .var 1
+                push "hello"
+                sv 0
+                :loop
+                gv 0
+                print
+                push 1
+                push 2
+                jlt loop
+                """), out);
+        var bytes = out.toByteArray();
+
+        for (int length = 0; length < bytes.length; length++) read(Arrays.copyOf(bytes, length));
+        for (int i = 0; i < bytes.length; i++) {
+            for (int flip : new int[]{0x01, 0x80, 0xff}) {
+                var damaged = bytes.clone();
+                damaged[i] ^= (byte) flip;
+                read(damaged);
+            }
+        }
+    }
+
+    private interface BrokenOutput extends SalaOutput, Flushable {
+    }
+
+    // when the program fails and the flush after it does too, the program's error is the one that's thrown
+    private static void flushFailureKeepsRunError() {
+        BrokenOutput out = new BrokenOutput() {
+            @Override
+            public void print(Object obj) {
+            }
+
+            @Override
+            public void flush() throws IOException {
+                throw new IOException("disk full");
+            }
+        };
+        try {
+            new Interpreter(out, () -> null).interpret("push \"a\"\npush 1\nsub\n");
+            throw new AssertionError("subtracting from a string should fail");
+        } catch (SalaException e) {
+            check(e.getSuppressed().length == 1 && e.getSuppressed()[0] instanceof UncheckedIOException,
+                    "expected the flush failure to be suppressed but got %s", Arrays.toString(e.getSuppressed()));
+        }
+
+        try {
+            new Interpreter(out, () -> null).interpret("push 1\nprint\n");
+            throw new AssertionError("a flush that fails after a successful run should throw");
+        } catch (SalaException e) {
+            throw new AssertionError("the run should have succeeded: " + e.getMessage());
+        } catch (UncheckedIOException _) {
+        }
+    }
+
+    // the halt between the main code and an out of line body stops the main code from running into the body's ret,
+    // which would pop a frame no call pushed
+    private static void strayReturnsAreRejected() throws Exception {
+        var program = compile("instr twice :\n:top\ndup\nadd\nend\npush 2\ntwice\nprint\n");
+        var code = program.code.clone();
+        var halt = 0;
+        while (code[halt] != Opcodes.HALT) halt += Opcodes.width(code[halt]);
+        code[halt] = Opcodes.CLEAR;
+
+        try {
+            Verifier.verify(code, program.constants, program.sites, program.vars);
+            throw new AssertionError("main code that reaches a ret should fail to verify");
+        } catch (SalaException e) {
+            check(e.getMessage().contains("'ret' outside"), "expected a stray ret to be reported but got %s", e.getMessage());
+        }
+
+        var out = new ByteArrayOutputStream();
+        ProgramFile.write(program, out);
+        var bytes = out.toByteArray();
+        // the header, an empty extension table and the code's length come before the code
+        var at = 4 + 2 + 4 + 4 + 4 + halt * 4;
+        check(bytes[at + 3] == Opcodes.HALT, "expected the halt at byte %d", at);
+        bytes[at + 3] = (byte) Opcodes.CLEAR;
+        try {
+            ProgramFile.read(new ByteArrayInputStream(bytes));
+            throw new AssertionError("a compiled program whose main code reaches a ret should fail to load");
+        } catch (IOException _) {
+        }
+    }
+
+    // a store that can't replace the cached file mustn't leave its temporary file in the cache
+    private static void failedCacheStoresCleanUp() throws Exception {
+        var dir = Files.createTempDirectory("sala-checks");
+        try {
+            var cache = new CompileCache(dir);
+            var source = ByteBuffer.wrap("push 1\nprint\n".getBytes(StandardCharsets.UTF_8));
+            var compiler = new Compiler();
+            var program = cache.load(source, compiler);
+            Path entry;
+            try (var files = Files.list(dir)) {
+                entry = files.findFirst().orElseThrow();
+            }
+
+            // a directory that isn't empty can't be replaced by a file
+            Files.delete(entry);
+            Files.createDirectories(entry.resolve("blocker"));
+            cache.store(source, compiler, program);
+            try (var files = Files.list(dir)) {
+                var left = files.filter(file -> file.toString().endsWith(".tmp")).toList();
+                check(left.isEmpty(), "expected no temporary files in the cache but found %s", left);
+            }
+        } finally {
+            delete(dir);
+        }
+    }
+
+    // the read instructions compile to calls on a SalaInput over stdin, and push what the interpreter pushes
+    private static void compiledProgramsRead() throws Exception {
+        var program = compile("readln\nprint\nprint\nreadint\nprint\nprint\nreadall\nprint\nreadint\nprint\nprint\n");
+        var input = "bob\n42\nrest\n";
+        var expected = run(program, input);
+        var output = runCompiled(program, input);
+        check(output.equals(expected), "expected the compiled program to print %s but it printed %s", expected, output);
+    }
+
+    // tokens are slices of the source they were lexed from, but the ones a program keeps for its errors can't hold on
+    // to all of it
+    private static void sitesDontKeepSource() throws SalaException {
+        var program = compile("push 1\npush \"a\"\n:loop\nadd\nprint\n");
+        for (var site : program.sites) {
+            if (site != null) check(site.detach() == site, "expected %s to be detached from its source", site);
+        }
+    }
+
+    private static void read(byte[] bytes) {
+        try {
+            ProgramFile.read(new ByteArrayInputStream(bytes));
+        } catch (IOException | SalaException _) {
+        } catch (RuntimeException | OutOfMemoryError e) {
+            throw new AssertionError("reading a damaged program threw " + e, e);
+        }
+    }
+
+    // an error, like the OutOfMemoryError for a string that's too long, ends the script it came from and not the
+    // worker that was running it
+    private static void batchSurvivesErrors() throws Exception {
+        for (long quantum : new long[]{0, 100}) {
+            var results = batch(1, quantum, "push \"ab\"\npush 2000000000\nmul\nprint\n", "push 1\nprint\n");
+            check(results.get(0).failed() && results.get(0).error().contains("OutOfMemoryError") && results.get(0).nanos() > 0,
+                    "expected the first script to fail with an OutOfMemoryError after a while but got %s", results.get(0));
+            check(!results.get(1).failed() && results.get(1).output().equals("1"), "expected the second script to print 1 but got %s", results.get(1));
+        }
+    }
+
+    // runs each source as a script of its own and returns their results in order, failing instead of hanging
+    private static List<BatchRunner.Result> batch(int threads, long quantum, String... sources) throws Exception {
+        var dir = Files.createTempDirectory("sala-checks");
+        try {
+            for (int i = 0; i < sources.length; i++) Files.writeString(dir.resolve(String.format("%04d.sala", i)), sources[i]);
+            var results = new ArrayList<BatchRunner.Result>();
+            var batch = new FutureTask<>(() -> new BatchRunner(threads, true).quantum(quantum).run(BatchRunner.jobs(dir), results::add));
+            Thread.ofPlatform().daemon().start(batch);
+            try {
+                batch.get(30, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                throw new AssertionError("a batch of " + sources.length + " scripts didn't finish");
+            }
+            return results;
+        } finally {
+            delete(dir);
+        }
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (var files = Files.walk(dir)) {
+            for (var file : files.sorted(Comparator.reverseOrder()).toList()) Files.delete(file);
+        }
+    }
+
+    private static void fuel(String source, long instructions) throws SalaException {
+        var execution = new Execution(compile(source), _ -> {}, () -> null).fuel(instructions);
+        try {
+            execution.run();
+        } catch (SalaException e) {
+            throw new AssertionError(String.format("%d instructions should be enough fuel for %s: %s", instructions, source, e.getMessage()));
+        }
+        check(execution.executed() == instructions, "expected %d instructions but ran %d for %s", instructions, execution.executed(), source);
+    }
+}